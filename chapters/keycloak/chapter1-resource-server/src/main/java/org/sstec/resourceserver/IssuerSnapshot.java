@@ -0,0 +1,38 @@
+package org.sstec.resourceserver;
+
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.util.JSONObjectUtils;
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.Map;
+
+// A saved copy of the issuer's openid-configuration and JWKS, e.g.
+//   curl http://localhost:8180/realms/<realm>/.well-known/openid-configuration > openid-configuration.json
+//   curl http://localhost:8180/realms/<realm>/protocol/openid-connect/certs > certs.json
+// so the application can start and verify tokens without waiting for Keycloak.
+record IssuerSnapshot(Map<String, Object> metadata, JWKSet jwkSet) {
+
+    static IssuerSnapshot load(String issuerUri, Resource metadata, Resource jwks) {
+        try {
+            Map<String, Object> configuration = JSONObjectUtils.parse(metadata.getContentAsString(StandardCharsets.UTF_8));
+            if (!issuerUri.equals(configuration.get("issuer"))) {
+                throw new IllegalStateException("The snapshot " + metadata + " is of issuer " + configuration.get("issuer")
+                        + ", not " + issuerUri);
+            }
+            return new IssuerSnapshot(configuration, JWKSet.parse(jwks.getContentAsString(StandardCharsets.UTF_8)));
+        } catch (IOException | ParseException e) {
+            throw new IllegalStateException("Couldn't read the issuer snapshot " + metadata + ", " + jwks, e);
+        }
+    }
+
+    String issuer() {
+        return (String) metadata.get("issuer");
+    }
+
+    String endpoint(String name) {
+        return (String) metadata.get(name);
+    }
+}
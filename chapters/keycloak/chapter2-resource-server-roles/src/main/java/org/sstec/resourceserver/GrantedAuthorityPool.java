@@ -0,0 +1,62 @@
+package org.sstec.resourceserver;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+// Shared GrantedAuthority instances for the roles and scopes found in tokens. A realm only has a handful
+// of them, so instead of building "ROLE_" + name and a new authority for every claim value on every
+// request, converters look the raw claim value up here and get the same instance back each time.
+// Each prefix keeps at most maximumSize authorities, tokens could name any number of them. Thread-safe.
+final class GrantedAuthorityPool {
+
+    enum Naming {
+        AS_IS,
+        UPPER_CASE // Like name.toUpperCase(), for client roles
+    }
+
+    private final long maximumSize;
+    private final ConcurrentMap<String, Prefix> prefixes = new ConcurrentHashMap<>();
+
+    GrantedAuthorityPool(long maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    // Authorities named prefix + name
+    Prefix prefix(String prefix) {
+        return prefix(prefix, Naming.AS_IS);
+    }
+
+    // Authorities named prefix + the name as naming says, the same Prefix for every caller
+    Prefix prefix(String prefix, Naming naming) {
+        Prefix pooled = prefixes.computeIfAbsent(prefix, p -> new Prefix(p, naming, maximumSize));
+        if (pooled.naming != naming) {
+            throw new IllegalArgumentException("Prefix " + prefix + " is already pooled as " + pooled.naming);
+        }
+        return pooled;
+    }
+
+    static final class Prefix {
+        private final Naming naming;
+        private final Cache<String, GrantedAuthority> authorities;
+        private final Function<String, GrantedAuthority> create;
+
+        private Prefix(String prefix, Naming naming, long maximumSize) {
+            this.naming = naming;
+            this.authorities = Caffeine.newBuilder().maximumSize(maximumSize).build();
+            this.create = naming == Naming.UPPER_CASE
+                    ? name -> new SimpleGrantedAuthority(prefix + name.toUpperCase())
+                    : name -> new SimpleGrantedAuthority(prefix + name);
+        }
+
+        // The pooled authority for a raw claim value, only a name seen for the first time allocates
+        GrantedAuthority authority(String name) {
+            return authorities.get(name, create);
+        }
+    }
+}
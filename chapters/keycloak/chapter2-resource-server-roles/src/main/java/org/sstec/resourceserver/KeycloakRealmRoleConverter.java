@@ -0,0 +1,35 @@
+package org.sstec.resourceserver;
+
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.oauth2.jwt.Jwt;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+// Converter to map Keycloak's realm_access.roles to ROLE_ prefixed authorities, as shared instances from the
+// GrantedAuthorityPool. Keycloak nests the roles in the realm_access claim, which JwtGrantedAuthoritiesConverter
+// cannot reach, it only reads top-level claims.
+class KeycloakRealmRoleConverter implements Converter<Jwt, Collection<GrantedAuthority>> {
+    private final GrantedAuthorityPool.Prefix realmRoles;
+
+    KeycloakRealmRoleConverter(GrantedAuthorityPool authorityPool) {
+        this.realmRoles = authorityPool.prefix("ROLE_");
+    }
+
+    @Override
+    public Collection<GrantedAuthority> convert(Jwt jwt) {
+        Map<String, List<String>> realmAccess = jwt.getClaim("realm_access");
+        if (realmAccess == null) {
+            return List.of();
+        }
+        List<String> roleNames = realmAccess.getOrDefault("roles", List.of());
+        List<GrantedAuthority> authorities = new ArrayList<>(roleNames.size());
+        for (String roleName : roleNames) {
+            authorities.add(realmRoles.authority(roleName));
+        }
+        return authorities;
+    }
+}
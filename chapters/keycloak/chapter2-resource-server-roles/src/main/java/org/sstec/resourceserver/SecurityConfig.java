@@ -1,5 +1,6 @@
 package org.sstec.resourceserver;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.method.configuration.EnableMethodSecurity;
@@ -8,7 +9,6 @@ import org.springframework.security.config.annotation.web.configuration.EnableWe
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
 import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationConverter;
-import org.springframework.security.oauth2.server.resource.authentication.JwtGrantedAuthoritiesConverter;
 import org.springframework.security.web.SecurityFilterChain;
 
 @Configuration
@@ -17,7 +17,8 @@ import org.springframework.security.web.SecurityFilterChain;
 public class SecurityConfig {
 
     @Bean
-    public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
+    public SecurityFilterChain securityFilterChain(HttpSecurity http,
+                                                   JwtAuthenticationConverter jwtAuthenticationConverter) throws Exception {
         http
                 .csrf(AbstractHttpConfigurer::disable)
                 .authorizeHttpRequests(authorizeRequests ->
@@ -30,7 +31,7 @@ public class SecurityConfig {
                 )
                 .oauth2ResourceServer(oauth2 -> oauth2
                         .jwt(jwt -> jwt
-                                .jwtAuthenticationConverter(jwtAuthenticationConverter()) // (1)
+                                .jwtAuthenticationConverter(jwtAuthenticationConverter) // (1)
                         )
                 )
                 .sessionManagement(session -> session
@@ -42,16 +43,18 @@ public class SecurityConfig {
 
     // (2) Bean to configure how JWT claims are converted to GrantedAuthority objects
     @Bean
-    public JwtAuthenticationConverter jwtAuthenticationConverter() {
-        JwtGrantedAuthoritiesConverter grantedAuthoritiesConverter = new JwtGrantedAuthoritiesConverter();
-        // (3) Tell Spring to look for roles in 'realm_access.roles'
-        grantedAuthoritiesConverter.setAuthoritiesClaimName("realm_access.roles");
-        // (4) Add a prefix to the role names (e.g., "APP_USER" becomes "ROLE_APP_USER")
+    public JwtAuthenticationConverter jwtAuthenticationConverter(GrantedAuthorityPool grantedAuthorityPool) {
+        // (3) Look for roles in Keycloak's 'realm_access.roles' claim
+        // (4) and add a prefix to the role names (e.g., "APP_USER" becomes "ROLE_APP_USER")
         // This is standard Spring Security practice for hasRole() checks
-        grantedAuthoritiesConverter.setAuthorityPrefix("ROLE_");
-
         JwtAuthenticationConverter jwtAuthenticationConverter = new JwtAuthenticationConverter();
-        jwtAuthenticationConverter.setJwtGrantedAuthoritiesConverter(grantedAuthoritiesConverter);
+        jwtAuthenticationConverter.setJwtGrantedAuthoritiesConverter(new KeycloakRealmRoleConverter(grantedAuthorityPool));
         return jwtAuthenticationConverter;
     }
+
+    // Roles map to the same GrantedAuthority instances for every token
+    @Bean
+    public GrantedAuthorityPool grantedAuthorityPool(@Value("${keycloak.authority-pool.maximum-size:1000}") long maximumSize) {
+        return new GrantedAuthorityPool(maximumSize);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,60 @@
+package org.sstec.resourceserver;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.jwt.BadJwtException;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+class CachingJwtDecoderTests {
+
+	private final AtomicInteger decodes = new AtomicInteger();
+
+	@Test
+	void decodesEachTokenOnce() {
+		JwtDecoder decoder = new CachingJwtDecoder(token -> decoded(token, Instant.now().plusSeconds(300)), 100);
+
+		Jwt first = decoder.decode("token-1");
+
+		assertThat(decoder.decode("token-1")).isSameAs(first);
+		assertThat(decoder.decode("token-2")).isNotSameAs(first);
+		assertThat(decodes).hasValue(2);
+	}
+
+	@Test
+	void doesNotCacheRejectedTokens() {
+		JwtDecoder decoder = new CachingJwtDecoder(token -> {
+			decodes.incrementAndGet();
+			throw new BadJwtException("Invalid signature");
+		}, 100);
+
+		assertThatExceptionOfType(BadJwtException.class).isThrownBy(() -> decoder.decode("token-1"));
+		assertThatExceptionOfType(BadJwtException.class).isThrownBy(() -> decoder.decode("token-1"));
+		assertThat(decodes).hasValue(2);
+	}
+
+	@Test
+	void doesNotKeepExpiredTokens() {
+		JwtDecoder decoder = new CachingJwtDecoder(token -> decoded(token, Instant.now().minusSeconds(1)), 100);
+
+		decoder.decode("token-1");
+		decoder.decode("token-1");
+
+		assertThat(decodes).hasValue(2);
+	}
+
+	private Jwt decoded(String token, Instant expiresAt) {
+		decodes.incrementAndGet();
+		return Jwt.withTokenValue(token)
+				.header("alg", "RS256")
+				.subject("user")
+				.issuedAt(expiresAt.minusSeconds(600))
+				.expiresAt(expiresAt)
+				.build();
+	}
+}
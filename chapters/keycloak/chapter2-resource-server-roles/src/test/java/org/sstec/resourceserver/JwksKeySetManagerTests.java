@@ -0,0 +1,278 @@
+package org.sstec.resourceserver;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.KeySourceException;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKMatcher;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.security.oauth2.resource.OAuth2ResourceServerProperties;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.web.client.RestClient;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.awaitility.Awaitility.await;
+
+class JwksKeySetManagerTests {
+
+	private final AtomicInteger discoveryRequests = new AtomicInteger();
+	private final AtomicInteger jwksRequests = new AtomicInteger();
+	private volatile JWKSet served;
+	private volatile boolean failing;
+	private volatile CountDownLatch answer; // Holds the JWKS response back until counted down
+	private HttpServer server;
+	private String issuer;
+	private RSAKey first;
+	private RSAKey second;
+	private JwksKeySetManager manager;
+
+	// A stand-in for Keycloak serving its openid-configuration and JWKS
+	@BeforeEach
+	void startIssuer() throws Exception {
+		first = new RSAKeyGenerator(2048).keyID("first").generate();
+		second = new RSAKeyGenerator(2048).keyID("second").generate();
+		served = new JWKSet(first.toPublicJWK());
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		issuer = "http://localhost:" + server.getAddress().getPort() + "/realms/test";
+		server.createContext("/realms/test/.well-known/openid-configuration", exchange -> {
+			discoveryRequests.incrementAndGet();
+			respond(exchange, "{\"issuer\":\"" + issuer + "\",\"jwks_uri\":\"" + issuer + "/protocol/openid-connect/certs\"}");
+		});
+		server.createContext("/realms/test/protocol/openid-connect/certs", exchange -> {
+			jwksRequests.incrementAndGet();
+			CountDownLatch latch = answer;
+			if (latch != null) {
+				try {
+					latch.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			if (failing) {
+				exchange.sendResponseHeaders(503, -1);
+				exchange.close();
+			} else {
+				respond(exchange, served.toString());
+			}
+		});
+		server.start();
+	}
+
+	@AfterEach
+	void stop() {
+		if (manager != null && manager.isRunning()) {
+			manager.stop();
+		}
+		server.stop(0);
+	}
+
+	@Test
+	void prefetchesTheKeysOnStart() throws Exception {
+		manager = manager(Duration.ofMinutes(5), Duration.ofMinutes(1), Duration.ofSeconds(30));
+
+		manager.start();
+		await().until(() -> jwksRequests.get() == 1);
+
+		assertThat(keys("first")).extracting(JWK::getKeyID).containsExactly("first");
+		assertThat(jwksRequests).hasValue(1);
+	}
+
+	@Test
+	void refreshesAheadOfTheTtl() throws Exception {
+		manager = manager(Duration.ofMillis(600), Duration.ofMillis(300), Duration.ofSeconds(30));
+		manager.start();
+		await().until(() -> jwksRequests.get() == 1);
+
+		served = new JWKSet(List.of(first.toPublicJWK(), second.toPublicJWK()));
+		await().atMost(Duration.ofSeconds(5)).until(() -> jwksRequests.get() >= 3);
+
+		assertThat(keys("second")).extracting(JWK::getKeyID).containsExactly("second");
+	}
+
+	@Test
+	void servesTheSnapshotKeysUntilTheIssuerAnswers() throws Exception {
+		manager = manager(Duration.ofMinutes(5), Duration.ofMinutes(1), Duration.ofSeconds(30));
+		served = new JWKSet(second.toPublicJWK());
+		manager.bootstrap(new IssuerSnapshot(Map.of("issuer", issuer), new JWKSet(first.toPublicJWK())));
+
+		assertThat(keys("first")).extracting(JWK::getKeyID).containsExactly("first");
+		assertThat(jwksRequests).hasValue(0);
+
+		manager.start();
+		await().until(() -> jwksRequests.get() == 1);
+
+		await().until(() -> keys("first").isEmpty());
+		assertThat(keys("second")).extracting(JWK::getKeyID).containsExactly("second");
+	}
+
+	@Test
+	void fetchesFromTheSnapshotsJwksUri() throws Exception {
+		manager = manager(Duration.ofMinutes(5), Duration.ofMinutes(1), Duration.ofSeconds(30));
+		served = new JWKSet(second.toPublicJWK());
+		manager.bootstrap(new IssuerSnapshot(Map.of("issuer", issuer, "jwks_uri", issuer + "/protocol/openid-connect/certs"),
+				new JWKSet(first.toPublicJWK())));
+
+		manager.start();
+		await().until(() -> jwksRequests.get() == 1);
+
+		await().until(() -> keys("first").isEmpty());
+		assertThat(discoveryRequests).hasValue(0);
+	}
+
+	@Test
+	void verifiesTokensSignedWithTheIssuersKeys() throws Exception {
+		manager = manager(Duration.ofMinutes(5), Duration.ofMinutes(1), Duration.ofSeconds(30));
+		OAuth2ResourceServerProperties properties = new OAuth2ResourceServerProperties();
+		properties.getJwt().setIssuerUri(issuer);
+		JwtDecoder decoder = new JwtDecoderConfig().jwtDecoder(properties, manager, 100);
+
+		SignedJWT token = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID("first").build(),
+				new JWTClaimsSet.Builder().issuer(issuer).subject("user")
+						.expirationTime(Date.from(Instant.now().plusSeconds(300))).build());
+		token.sign(new RSASSASigner(first));
+
+		assertThat(decoder.decode(token.serialize()).getSubject()).isEqualTo("user");
+	}
+
+	@Test
+	void fetchesOnceForAnUnknownKid() throws Exception {
+		manager = manager(Duration.ofMinutes(5), Duration.ofMinutes(1), Duration.ZERO);
+		keys("first");
+		served = new JWKSet(List.of(first.toPublicJWK(), second.toPublicJWK()));
+
+		ExecutorService requests = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<List<JWK>>> found = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				found.add(requests.submit(() -> keys("second")));
+			}
+			for (Future<List<JWK>> keys : found) {
+				assertThat(keys.get()).extracting(JWK::getKeyID).containsExactly("second");
+			}
+		} finally {
+			requests.shutdown();
+		}
+		assertThat(jwksRequests).hasValue(2);
+	}
+
+	@Test
+	void requestsWaitForTheFetchOnStart() throws Exception {
+		manager = manager(Duration.ofMinutes(5), Duration.ofMinutes(1), Duration.ofSeconds(30));
+		answer = new CountDownLatch(1);
+		manager.start();
+		await().until(() -> jwksRequests.get() == 1);
+
+		assertThat(keysConcurrently("first")).allSatisfy(keys ->
+				assertThat(keys).extracting(JWK::getKeyID).containsExactly("first"));
+		assertThat(jwksRequests).hasValue(1);
+	}
+
+	@Test
+	void requestsWithAnUnknownKidWaitForTheRunningFetch() throws Exception {
+		manager = manager(Duration.ofMinutes(5), Duration.ofMinutes(1), Duration.ofSeconds(30));
+		manager.bootstrap(new IssuerSnapshot(Map.of("issuer", issuer), new JWKSet(first.toPublicJWK())));
+		served = new JWKSet(List.of(first.toPublicJWK(), second.toPublicJWK()));
+		answer = new CountDownLatch(1);
+
+		assertThat(keysConcurrently("second")).allSatisfy(keys ->
+				assertThat(keys).extracting(JWK::getKeyID).containsExactly("second"));
+		assertThat(jwksRequests).hasValue(1);
+	}
+
+	@Test
+	void limitsFetchesForUnknownKids() throws Exception {
+		manager = manager(Duration.ofMinutes(5), Duration.ofMinutes(1), Duration.ofSeconds(30));
+		keys("first");
+
+		for (int i = 0; i < 5; i++) {
+			assertThat(keys("made-up-" + i)).isEmpty();
+		}
+		assertThat(jwksRequests).hasValue(1);
+	}
+
+	@Test
+	void keepsTheKeysWhileTheIssuerIsDown() throws Exception {
+		manager = manager(Duration.ofMillis(100), Duration.ZERO, Duration.ZERO);
+		keys("first");
+		failing = true;
+		Thread.sleep(200);
+
+		assertThat(keys("first")).extracting(JWK::getKeyID).containsExactly("first");
+		assertThat(jwksRequests).hasValue(2);
+	}
+
+	@Test
+	void failsWithoutKeys() {
+		failing = true;
+		manager = manager(Duration.ofMinutes(5), Duration.ofMinutes(1), Duration.ofSeconds(30));
+
+		assertThatExceptionOfType(KeySourceException.class).isThrownBy(() -> keys("first"));
+		assertThatExceptionOfType(KeySourceException.class).isThrownBy(() -> keys("first"));
+		assertThat(jwksRequests).hasValue(1);
+	}
+
+	// Looks the kid up from 8 threads while the issuer holds back its answer, then lets it answer
+	private List<List<JWK>> keysConcurrently(String kid) throws Exception {
+		ExecutorService requests = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<List<JWK>>> found = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				found.add(requests.submit(() -> keys(kid)));
+			}
+			await().until(() -> jwksRequests.get() == 1);
+			Thread.sleep(200);
+			answer.countDown();
+			List<List<JWK>> keys = new ArrayList<>();
+			for (Future<List<JWK>> future : found) {
+				keys.add(future.get());
+			}
+			return keys;
+		} finally {
+			answer.countDown();
+			requests.shutdown();
+		}
+	}
+
+	private JwksKeySetManager manager(Duration ttl, Duration refreshAhead, Duration minRefreshInterval) {
+		return new JwksKeySetManager(issuer, null, RestClient.create(), ttl, refreshAhead, minRefreshInterval);
+	}
+
+	private List<JWK> keys(String kid) throws KeySourceException {
+		return manager.get(new JWKSelector(new JWKMatcher.Builder().keyID(kid).build()), null);
+	}
+
+	private static void respond(HttpExchange exchange, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		exchange.sendResponseHeaders(200, bytes.length);
+		exchange.getResponseBody().write(bytes);
+		exchange.close();
+	}
+}
@@ -0,0 +1,49 @@
+package org.sstec.resourceserver;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.oauth2.jwt.Jwt;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class KeycloakRealmRoleConverterTests {
+
+	private final KeycloakRealmRoleConverter converter = new KeycloakRealmRoleConverter(new GrantedAuthorityPool(100));
+
+	@Test
+	void mapsRealmRoles() {
+		Collection<GrantedAuthority> authorities = converter.convert(jwt(Map.of("roles", List.of("APP_USER", "APP_ADMIN"))));
+
+		assertThat(authorities).extracting(GrantedAuthority::getAuthority).containsExactly("ROLE_APP_USER", "ROLE_APP_ADMIN");
+	}
+
+	@Test
+	void sharesAuthoritiesBetweenTokens() {
+		GrantedAuthority first = converter.convert(jwt(Map.of("roles", List.of("APP_USER")))).iterator().next();
+		GrantedAuthority second = converter.convert(jwt(Map.of("roles", List.of("APP_USER")))).iterator().next();
+
+		assertThat(second).isSameAs(first);
+	}
+
+	@Test
+	void grantsNothingWithoutRealmAccess() {
+		assertThat(converter.convert(jwt(null))).isEmpty();
+	}
+
+	private static Jwt jwt(Map<String, Object> realmAccess) {
+		Jwt.Builder builder = Jwt.withTokenValue("token")
+				.header("alg", "RS256")
+				.subject("user")
+				.issuedAt(Instant.now())
+				.expiresAt(Instant.now().plusSeconds(300));
+		if (realmAccess != null) {
+			builder.claim("realm_access", realmAccess);
+		}
+		return builder.build();
+	}
+}
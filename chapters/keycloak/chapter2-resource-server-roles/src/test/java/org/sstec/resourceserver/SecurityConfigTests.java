@@ -0,0 +1,73 @@
+package org.sstec.resourceserver;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.BDDMockito.given;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// The role rules of the filter chain, for tokens as Keycloak issues them with the roles in realm_access.roles
+@SpringBootTest
+@AutoConfigureMockMvc
+class SecurityConfigTests {
+
+	@Autowired
+	private MockMvc mvc;
+
+	@MockitoBean
+	private JwtDecoder jwtDecoder;
+
+	@BeforeEach
+	void tokens() {
+		given(jwtDecoder.decode("user")).willReturn(jwt("user", Map.of("roles", List.of("APP_USER"))));
+		given(jwtDecoder.decode("admin")).willReturn(jwt("admin", Map.of("roles", List.of("APP_ADMIN"))));
+		given(jwtDecoder.decode("no-roles")).willReturn(jwt("no-roles", Map.of()));
+	}
+
+	@Test
+	void letsAnyoneReadPublicInfo() throws Exception {
+		mvc.perform(get("/api/public/info")).andExpect(status().isOk());
+	}
+
+	@Test
+	void needsATokenForTheRest() throws Exception {
+		mvc.perform(get("/api/hello")).andExpect(status().isUnauthorized());
+	}
+
+	@Test
+	void letsAppUsersAndAdminsReadUserData() throws Exception {
+		mvc.perform(get("/api/user/data").header("Authorization", "Bearer user")).andExpect(status().isOk());
+		mvc.perform(get("/api/user/data").header("Authorization", "Bearer admin")).andExpect(status().isOk());
+		mvc.perform(get("/api/user/data").header("Authorization", "Bearer no-roles")).andExpect(status().isForbidden());
+	}
+
+	@Test
+	void letsOnlyAppAdminsReadAdminData() throws Exception {
+		mvc.perform(get("/api/admin/data").header("Authorization", "Bearer admin")).andExpect(status().isOk());
+		mvc.perform(get("/api/admin/data").header("Authorization", "Bearer user")).andExpect(status().isForbidden());
+		mvc.perform(get("/api/admin/data").header("Authorization", "Bearer no-roles")).andExpect(status().isForbidden());
+	}
+
+	private static Jwt jwt(String tokenValue, Map<String, Object> realmAccess) {
+		return Jwt.withTokenValue(tokenValue)
+				.header("alg", "RS256")
+				.subject(tokenValue)
+				.claim("preferred_username", tokenValue)
+				.claim("realm_access", realmAccess)
+				.issuedAt(Instant.now())
+				.expiresAt(Instant.now().plusSeconds(300))
+				.build();
+	}
+}
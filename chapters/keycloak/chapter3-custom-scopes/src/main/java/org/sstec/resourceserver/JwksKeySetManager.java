@@ -0,0 +1,226 @@
+package org.sstec.resourceserver;
+
+import com.nimbusds.jose.KeySourceException;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.source.JWKSource;
+import com.nimbusds.jose.proc.SecurityContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.web.client.RestClient;
+
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+// The issuer's signing keys (JWKS), fetched ahead of need: once as the application starts, then on a
+// background thread refreshAhead before they are ttl old. Requests read the keys from memory and do not wait
+// on Keycloak, except for a token signed with a key id (kid) that is not known yet, after a key rotation.
+// All requests waiting on keys share one fetch, and fetches on their behalf happen at most once every
+// minRefreshInterval, so tokens with made-up kids cannot send every request to Keycloak. When a fetch
+// fails the last keys stay in use and the background thread tries again after minRefreshInterval.
+// Started from an IssuerSnapshot, its keys serve requests until the first fetch from the issuer replaces them.
+class JwksKeySetManager implements JWKSource<SecurityContext>, SmartLifecycle {
+    private static final Logger logger = LoggerFactory.getLogger(JwksKeySetManager.class);
+
+    private final String issuerUri;
+    private final RestClient restClient;
+    private final Duration ttl;
+    private final Duration refreshAhead;
+    private final Duration minRefreshInterval;
+
+    private volatile String jwkSetUri; // Discovered from the issuer unless configured
+    private volatile KeySet keys;
+    private volatile Instant lastFetchAttempt = Instant.MIN;
+    private volatile RuntimeException lastFetchFailure; // Null once a fetch succeeded
+    private final AtomicReference<CompletableFuture<KeySet>> inFlight = new AtomicReference<>();
+    private ScheduledExecutorService scheduler;
+
+    JwksKeySetManager(String issuerUri, String jwkSetUri, RestClient restClient, Duration ttl, Duration refreshAhead,
+                      Duration minRefreshInterval) {
+        this.issuerUri = issuerUri;
+        this.jwkSetUri = jwkSetUri;
+        this.restClient = restClient;
+        this.ttl = ttl;
+        this.refreshAhead = refreshAhead;
+        this.minRefreshInterval = minRefreshInterval;
+    }
+
+    @Override
+    public List<JWK> get(JWKSelector jwkSelector, SecurityContext context) throws KeySourceException {
+        KeySet current = keys;
+        if (current == null || current.isOlderThan(ttl)) {
+            // Only when the background refresh could not keep up, e.g. right after startup
+            current = refreshIfAllowed(current);
+        }
+        List<JWK> matches = jwkSelector.select(current.jwkSet());
+        Set<String> keyIds = jwkSelector.getMatcher().getKeyIDs();
+        if (matches.isEmpty() && keyIds != null && !keyIds.isEmpty()) {
+            // A kid we have not seen, the issuer may have rotated its keys
+            matches = jwkSelector.select(refreshIfAllowed(current).jwkSet());
+        }
+        return matches;
+    }
+
+    // Serves the snapshot's keys until start() has fetched the issuer's own, call before start().
+    // Unless configured, the JWKS is then fetched from the snapshot's jwks_uri without asking the issuer for it.
+    void bootstrap(IssuerSnapshot snapshot) {
+        if (jwkSetUri == null) {
+            jwkSetUri = snapshot.endpoint("jwks_uri");
+        }
+        keys = new KeySet(snapshot.jwkSet(), Instant.now(), true);
+    }
+
+    // Starts the prefetch, the application does not wait for it
+    @Override
+    public synchronized void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "jwks-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.execute(this::scheduledRefresh);
+    }
+
+    @Override
+    public synchronized void stop() {
+        scheduler.shutdownNow();
+        scheduler = null;
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return scheduler != null;
+    }
+
+    private KeySet refreshIfAllowed(KeySet current) throws KeySourceException {
+        KeySet refreshed;
+        try {
+            refreshed = refresh(current, true);
+        } catch (RuntimeException e) {
+            if (current == null) {
+                throw new KeySourceException("Couldn't fetch the keys of " + issuerUri, e);
+            }
+            logger.warn("Couldn't refresh the keys of {}, keeping the current ones: {}", issuerUri, e.toString());
+            return current;
+        }
+        if (refreshed != null) {
+            return refreshed;
+        }
+        // Rate limited, and the last fetch did not bring any keys
+        if (current == null) {
+            throw new KeySourceException("No keys from " + issuerUri + " yet, the last fetch failed", lastFetchFailure);
+        }
+        return current;
+    }
+
+    // Fetches new keys unless they changed since seen, joining the fetch already running if there is one.
+    // Only once no fetch is running is the rate limit checked: when limited and minRefreshInterval has not
+    // passed since the last fetch started, returns null instead of fetching.
+    private KeySet refresh(KeySet seen, boolean limited) {
+        CompletableFuture<KeySet> fetch = new CompletableFuture<>();
+        CompletableFuture<KeySet> running = inFlight.compareAndExchange(null, fetch);
+        if (running != null) {
+            try {
+                KeySet joined = running.join();
+                return joined != null ? joined : keys;
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+        try {
+            KeySet latest = keys;
+            if (latest != seen) {
+                fetch.complete(latest);
+                return latest;
+            }
+            if (limited && Instant.now().isBefore(lastFetchAttempt.plus(minRefreshInterval))) {
+                fetch.complete(null);
+                return null;
+            }
+            lastFetchAttempt = Instant.now();
+            KeySet fetched = new KeySet(fetchJwkSet(), Instant.now(), false);
+            if (seen != null && seen.fromSnapshot()) {
+                logger.info("Replaced the snapshot keys of {} with {} keys from the issuer", issuerUri,
+                        fetched.jwkSet().size());
+            }
+            keys = fetched;
+            lastFetchFailure = null;
+            fetch.complete(fetched);
+            return fetched;
+        } catch (RuntimeException e) {
+            lastFetchFailure = e;
+            fetch.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.set(null);
+        }
+    }
+
+    // Runs on the scheduler thread, always schedules its next run
+    private void scheduledRefresh() {
+        Duration delay;
+        try {
+            KeySet current = keys;
+            Instant due = current == null || current.fromSnapshot()
+                    ? Instant.MIN
+                    : current.fetchedAt().plus(ttl).minus(refreshAhead);
+            if (!Instant.now().isBefore(due)) {
+                current = refresh(current, false);
+                logger.debug("Fetched {} keys of {}", current.jwkSet().size(), issuerUri);
+            }
+            delay = Duration.between(Instant.now(), current.fetchedAt().plus(ttl).minus(refreshAhead));
+        } catch (RuntimeException e) {
+            logger.warn("Couldn't fetch the keys of {}, trying again in {}: {}", issuerUri, minRefreshInterval,
+                    e.toString());
+            delay = minRefreshInterval;
+        }
+        synchronized (this) {
+            if (scheduler != null) {
+                scheduler.schedule(this::scheduledRefresh, Math.max(delay.toMillis(), 0), TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private JWKSet fetchJwkSet() {
+        String body = restClient.get().uri(jwkSetUri()).retrieve().body(String.class);
+        try {
+            return JWKSet.parse(body);
+        } catch (ParseException e) {
+            throw new IllegalStateException("Invalid JWK set from " + jwkSetUri, e);
+        }
+    }
+
+    private String jwkSetUri() {
+        if (jwkSetUri == null) {
+            Map<String, Object> configuration = restClient.get()
+                    .uri(issuerUri + "/.well-known/openid-configuration")
+                    .retrieve()
+                    .body(new ParameterizedTypeReference<>() {
+                    });
+            if (configuration == null || !issuerUri.equals(configuration.get("issuer"))) {
+                throw new IllegalStateException("The issuer in the configuration of " + issuerUri + " does not match");
+            }
+            jwkSetUri = (String) configuration.get("jwks_uri");
+        }
+        return jwkSetUri;
+    }
+
+    private record KeySet(JWKSet jwkSet, Instant fetchedAt, boolean fromSnapshot) {
+        boolean isOlderThan(Duration age) {
+            return Instant.now().isAfter(fetchedAt.plus(age));
+        }
+    }
+}
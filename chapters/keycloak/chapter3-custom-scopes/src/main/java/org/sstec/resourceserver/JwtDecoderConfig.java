@@ -0,0 +1,95 @@
+package org.sstec.resourceserver;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.proc.JWSVerificationKeySelector;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.proc.DefaultJWTProcessor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.security.oauth2.resource.OAuth2ResourceServerProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.Resource;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.security.oauth2.core.DelegatingOAuth2TokenValidator;
+import org.springframework.security.oauth2.core.OAuth2TokenValidator;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtClaimNames;
+import org.springframework.security.oauth2.jwt.JwtClaimValidator;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtValidators;
+import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
+import org.springframework.web.client.RestClient;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+@Configuration
+public class JwtDecoderConfig {
+
+    // (1) Replaces the decoder Spring Boot builds from spring.security.oauth2.resourceserver.jwt.*
+    // with the same one wrapped in a cache, so a token is only verified on its first request
+    @Bean
+    public JwtDecoder jwtDecoder(OAuth2ResourceServerProperties properties, JwksKeySetManager jwksKeySetManager,
+                                 @Value("${keycloak.jwt-cache.maximum-size:10000}") long maximumSize) {
+        OAuth2ResourceServerProperties.Jwt jwt = properties.getJwt();
+        // (2) Signatures are checked against the keys the JwksKeySetManager keeps up to date,
+        // the claims by the validators below
+        DefaultJWTProcessor<SecurityContext> jwtProcessor = new DefaultJWTProcessor<>();
+        jwtProcessor.setJWSKeySelector(new JWSVerificationKeySelector<>(jwsAlgorithms(jwt), jwksKeySetManager));
+        jwtProcessor.setJWTClaimsSetVerifier((claims, context) -> {
+        });
+        NimbusJwtDecoder decoder = new NimbusJwtDecoder(jwtProcessor);
+        decoder.setJwtValidator(validator(jwt));
+        return new CachingJwtDecoder(decoder, maximumSize);
+    }
+
+    // (3) Fetches the issuer's keys at startup and ahead of their expiry, instead of on the first requests
+    @Bean
+    public JwksKeySetManager jwksKeySetManager(OAuth2ResourceServerProperties properties,
+                                               @Value("${keycloak.jwks.ttl:5m}") Duration ttl,
+                                               @Value("${keycloak.jwks.refresh-ahead:1m}") Duration refreshAhead,
+                                               @Value("${keycloak.jwks.min-refresh-interval:30s}") Duration minRefreshInterval,
+                                               ObjectProvider<IssuerSnapshot> issuerSnapshot) {
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(Duration.ofSeconds(5));
+        requestFactory.setReadTimeout(Duration.ofSeconds(5));
+        OAuth2ResourceServerProperties.Jwt jwt = properties.getJwt();
+        JwksKeySetManager jwksKeySetManager = new JwksKeySetManager(jwt.getIssuerUri(), jwt.getJwkSetUri(),
+                RestClient.builder().requestFactory(requestFactory).build(), ttl, refreshAhead, minRefreshInterval);
+        issuerSnapshot.ifAvailable(jwksKeySetManager::bootstrap);
+        return jwksKeySetManager;
+    }
+
+    // (4) Optional: with both keycloak.bootstrap.* pointing at saved copies of the issuer's openid-configuration
+    // and JWKS, tokens are verified with the saved keys until Keycloak has answered
+    @Bean
+    @ConditionalOnProperty({"keycloak.bootstrap.issuer-metadata", "keycloak.bootstrap.jwks"})
+    public IssuerSnapshot issuerSnapshot(OAuth2ResourceServerProperties properties,
+                                         @Value("${keycloak.bootstrap.issuer-metadata}") Resource issuerMetadata,
+                                         @Value("${keycloak.bootstrap.jwks}") Resource jwks) {
+        return IssuerSnapshot.load(properties.getJwt().getIssuerUri(), issuerMetadata, jwks);
+    }
+
+    // (5) spring.security.oauth2.resourceserver.jwt.jws-algorithms, RS256 unless set
+    private static Set<JWSAlgorithm> jwsAlgorithms(OAuth2ResourceServerProperties.Jwt jwt) {
+        return jwt.getJwsAlgorithms().stream().map(JWSAlgorithm::parse).collect(Collectors.toSet());
+    }
+
+    // (6) Checks exp, nbf and iss, and aud when spring.security.oauth2.resourceserver.jwt.audiences is set
+    private static OAuth2TokenValidator<Jwt> validator(OAuth2ResourceServerProperties.Jwt jwt) {
+        List<OAuth2TokenValidator<Jwt>> validators = new ArrayList<>();
+        validators.add(JwtValidators.createDefaultWithIssuer(jwt.getIssuerUri()));
+        List<String> audiences = jwt.getAudiences();
+        if (!audiences.isEmpty()) {
+            validators.add(new JwtClaimValidator<List<String>>(JwtClaimNames.AUD,
+                    aud -> aud != null && !Collections.disjoint(aud, audiences)));
+        }
+        return new DelegatingOAuth2TokenValidator<>(validators);
+    }
+}
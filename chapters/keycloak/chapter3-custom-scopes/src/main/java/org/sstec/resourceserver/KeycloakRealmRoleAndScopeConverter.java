@@ -0,0 +1,137 @@
+package org.sstec.resourceserver;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.oauth2.jwt.Jwt;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+// Converter to extract realm roles and client scopes and prefix them for Spring Security,
+// as shared instances from the GrantedAuthorityPool.
+// Clients send the same access token for its whole lifetime, so the result is cached per token
+// (by its jti, or a SHA-256 of the token when it has none) until the token expires.
+// Hits and misses are published as cache.gets{cache=jwt.authorities}.
+class KeycloakRealmRoleAndScopeConverter implements Converter<Jwt, Collection<GrantedAuthority>>, MeterBinder {
+    static final String CACHE_NAME = "jwt.authorities";
+
+    // Tokens without an exp claim are kept this long at most
+    private static final Duration MAX_UNTIL_EXPIRY = Duration.ofMinutes(5);
+
+    private final Cache<String, CachedAuthorities> cache;
+    private final GrantedAuthorityPool.Prefix realmRoles;
+    private final GrantedAuthorityPool.Prefix scopes;
+    private final GrantedAuthorityPool.Prefix clientRoles;
+
+    KeycloakRealmRoleAndScopeConverter(long maximumSize, GrantedAuthorityPool authorityPool) {
+        this.realmRoles = authorityPool.prefix("ROLE_");
+        this.scopes = authorityPool.prefix("SCOPE_");
+        this.clientRoles = authorityPool.prefix("ROLE_CLIENT_", GrantedAuthorityPool.Naming.UPPER_CASE);
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(new UntilTokenExpiry())
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public Collection<GrantedAuthority> convert(Jwt jwt) {
+        String key = cacheKey(jwt);
+        CachedAuthorities cached = cache.getIfPresent(key);
+        if (cached == null) {
+            cached = new CachedAuthorities(List.copyOf(extractAuthorities(jwt)), jwt.getExpiresAt());
+            cache.put(key, cached);
+        }
+        return cached.authorities();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, CACHE_NAME);
+    }
+
+    private List<GrantedAuthority> extractAuthorities(Jwt jwt) {
+        List<GrantedAuthority> authorities = new ArrayList<>();
+
+        // Extract realm_access.roles, prefixed with ROLE_
+        Map<String, List<String>> realmAccess = jwt.getClaim("realm_access");
+        for (String roleName : realmAccess.getOrDefault("roles", List.of())) {
+            authorities.add(realmRoles.authority(roleName));
+        }
+
+        // Extract scope claim (space-separated string), prefixed with SCOPE_
+        String scopeClaim = jwt.getClaimAsString("scope");
+        if (scopeClaim != null) {
+            for (String scopeName : scopeClaim.split(" ")) {
+                authorities.add(scopes.authority(scopeName));
+            }
+        }
+
+        // Extract resource_access.<client_id>.roles (client roles), prefixed with ROLE_CLIENT_
+        // Example: spring.security.oauth2.client.registration.keycloak.client-id=spring-boot-app
+        // You might need to make client-id configurable or discover it. For now, hardcoding for demo.
+        String clientId = "spring-boot-app"; // Or fetch from properties
+        Map<String, Map<String, List<String>>> resourceAccess = jwt.getClaim("resource_access");
+        if (resourceAccess != null && resourceAccess.containsKey(clientId)) {
+            for (String roleName : resourceAccess.get(clientId).getOrDefault("roles", List.of())) {
+                authorities.add(clientRoles.authority(roleName));
+            }
+        }
+        return authorities;
+    }
+
+    // Keycloak gives every token a unique jti, the token itself is only hashed when it is missing.
+    // The prefixes keep the two apart: a token cannot pick a jti that matches another token's hash.
+    private static String cacheKey(Jwt jwt) {
+        String jti = jwt.getId();
+        if (jti != null) {
+            return "jti:" + jti;
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(jwt.getTokenValue().getBytes(StandardCharsets.US_ASCII));
+            return "sha256:" + HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private record CachedAuthorities(List<GrantedAuthority> authorities, Instant expiresAt) {
+    }
+
+    // An entry lives until its token expires, never longer than MAX_UNTIL_EXPIRY without an exp claim
+    private static final class UntilTokenExpiry implements Expiry<String, CachedAuthorities> {
+        @Override
+        public long expireAfterCreate(String key, CachedAuthorities value, long currentTime) {
+            if (value.expiresAt() == null) {
+                return MAX_UNTIL_EXPIRY.toNanos();
+            }
+            Duration remaining = Duration.between(Instant.now(), value.expiresAt());
+            return remaining.isNegative() ? 0 : remaining.toNanos();
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, CachedAuthorities value, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, value, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, CachedAuthorities value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
@@ -1,22 +1,26 @@
 package org.sstec.resourceserver;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.security.oauth2.client.OAuth2ClientProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.core.convert.converter.Converter;
 import org.springframework.security.config.annotation.method.configuration.EnableMethodSecurity;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
-import org.springframework.security.core.GrantedAuthority;
-import org.springframework.security.core.authority.SimpleGrantedAuthority;
-import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
+import org.springframework.security.oauth2.client.registration.InMemoryClientRegistrationRepository;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.ClientAuthenticationMethod;
+import org.springframework.security.oauth2.core.oidc.IdTokenClaimNames;
+import org.springframework.security.oauth2.core.oidc.OidcScopes;
 import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationConverter;
 import org.springframework.security.web.SecurityFilterChain;
 
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.Set;
 
 @Configuration
 @EnableWebSecurity
@@ -24,7 +28,8 @@ import java.util.stream.Stream;
 public class SecurityConfig {
 
     @Bean
-    public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
+    public SecurityFilterChain securityFilterChain(HttpSecurity http,
+                                                   JwtAuthenticationConverter jwtAuthenticationConverter) throws Exception {
         http
                 .authorizeHttpRequests(authorizeRequests ->
                         authorizeRequests
@@ -36,7 +41,7 @@ public class SecurityConfig {
                 )
                 .oauth2ResourceServer(oauth2 -> oauth2
                         .jwt(jwt -> jwt
-                                .jwtAuthenticationConverter(jwtAuthenticationConverter())
+                                .jwtAuthenticationConverter(jwtAuthenticationConverter)
                         )
                 )
                 .oauth2Login(oauth2Login -> // Optional: If you want this app to also be an OAuth2 client
@@ -48,49 +53,59 @@ public class SecurityConfig {
 
     // Custom JWT converter to map Keycloak roles and scopes to Spring Security authorities
     @Bean
-    public JwtAuthenticationConverter jwtAuthenticationConverter() {
+    public JwtAuthenticationConverter jwtAuthenticationConverter(KeycloakRealmRoleAndScopeConverter authoritiesConverter) {
         JwtAuthenticationConverter converter = new JwtAuthenticationConverter();
-        converter.setJwtGrantedAuthoritiesConverter(new KeycloakRealmRoleAndScopeConverter());
+        converter.setJwtGrantedAuthoritiesConverter(authoritiesConverter);
         return converter;
     }
-}
-
-// Converter to extract realm roles and client scopes and prefix them for Spring Security
-class KeycloakRealmRoleAndScopeConverter implements Converter<Jwt, Collection<GrantedAuthority>> {
-    @Override
-    public Collection<GrantedAuthority> convert(Jwt jwt) {
-        // Extract realm_access.roles
-        List<GrantedAuthority> realmRoles = ((Map<String, List<String>>) jwt.getClaim("realm_access"))
-                .getOrDefault("roles", List.of())
-                .stream()
-                .map(roleName -> "ROLE_" + roleName) // Prefix with ROLE_
-                .map(SimpleGrantedAuthority::new)
-                .collect(Collectors.toList());
-
-        // Extract scope claim (space-separated string)
-        String scopeClaim = jwt.getClaimAsString("scope");
-        List<GrantedAuthority> scopes = Stream.of(scopeClaim != null ? scopeClaim.split(" ") : new String[0])
-                .map(scopeName -> "SCOPE_" + scopeName) // Prefix with SCOPE_
-                .map(SimpleGrantedAuthority::new)
-                .collect(Collectors.toList());
 
-        // Extract resource_access.<client_id>.roles (client roles)
-        // Example: spring.security.oauth2.client.registration.keycloak.client-id=spring-boot-app
-        // You might need to make client-id configurable or discover it. For now, hardcoding for demo.
-        String clientId = "spring-boot-app"; // Or fetch from properties
-        Map<String, Map<String, List<String>>> resourceAccess = jwt.getClaim("resource_access");
-        List<GrantedAuthority> clientRoles = List.of();
-        if (resourceAccess != null && resourceAccess.containsKey(clientId)) {
-            clientRoles = resourceAccess.get(clientId).getOrDefault("roles", List.of())
-                    .stream()
-                    .map(roleName -> "ROLE_CLIENT_" + roleName.toUpperCase()) // Prefix with ROLE_CLIENT_
-                    .map(SimpleGrantedAuthority::new)
-                    .collect(Collectors.toList());
-        }
+    // A bean of its own so its cache metrics get registered (MeterBinder)
+    @Bean
+    public KeycloakRealmRoleAndScopeConverter keycloakRealmRoleAndScopeConverter(
+            @Value("${keycloak.authorities-cache.maximum-size:10000}") long maximumSize,
+            GrantedAuthorityPool grantedAuthorityPool) {
+        return new KeycloakRealmRoleAndScopeConverter(maximumSize, grantedAuthorityPool);
+    }
 
+    // Roles and scopes map to the same GrantedAuthority instances for every token
+    @Bean
+    public GrantedAuthorityPool grantedAuthorityPool(@Value("${keycloak.authority-pool.maximum-size:1000}") long maximumSize) {
+        return new GrantedAuthorityPool(maximumSize);
+    }
 
-        // Combine all authorities
-        return Stream.concat(Stream.concat(realmRoles.stream(), scopes.stream()), clientRoles.stream())
-                .collect(Collectors.toList());
+    // Optional: with both keycloak.bootstrap.* set (see JwtDecoderConfig), the login client is configured from the
+    // saved openid-configuration instead of asking Keycloak for it while the application starts
+    @Bean
+    @ConditionalOnProperty({"keycloak.bootstrap.issuer-metadata", "keycloak.bootstrap.jwks"})
+    public ClientRegistrationRepository clientRegistrationRepository(OAuth2ClientProperties properties,
+                                                                     IssuerSnapshot issuerSnapshot) {
+        List<ClientRegistration> registrations = new ArrayList<>();
+        properties.getRegistration().forEach((registrationId, registration) -> {
+            String providerId = registration.getProvider() != null ? registration.getProvider() : registrationId;
+            OAuth2ClientProperties.Provider provider = properties.getProvider().get(providerId);
+            if (provider == null || !issuerSnapshot.issuer().equals(provider.getIssuerUri())) {
+                throw new IllegalStateException("Client registration " + registrationId
+                        + " is not for the snapshot's issuer " + issuerSnapshot.issuer());
+            }
+            registrations.add(ClientRegistration.withRegistrationId(registrationId)
+                    .clientId(registration.getClientId())
+                    .clientSecret(registration.getClientSecret())
+                    .clientAuthenticationMethod(registration.getClientAuthenticationMethod() != null
+                            ? new ClientAuthenticationMethod(registration.getClientAuthenticationMethod())
+                            : ClientAuthenticationMethod.CLIENT_SECRET_BASIC)
+                    .authorizationGrantType(new AuthorizationGrantType(registration.getAuthorizationGrantType()))
+                    .redirectUri(registration.getRedirectUri())
+                    .scope(registration.getScope() != null ? registration.getScope() : Set.of(OidcScopes.OPENID))
+                    .clientName(registration.getClientName() != null ? registration.getClientName() : issuerSnapshot.issuer())
+                    .authorizationUri(issuerSnapshot.endpoint("authorization_endpoint"))
+                    .tokenUri(issuerSnapshot.endpoint("token_endpoint"))
+                    .userInfoUri(issuerSnapshot.endpoint("userinfo_endpoint"))
+                    .userNameAttributeName(IdTokenClaimNames.SUB)
+                    .jwkSetUri(issuerSnapshot.endpoint("jwks_uri"))
+                    .issuerUri(issuerSnapshot.issuer())
+                    .providerConfigurationMetadata(issuerSnapshot.metadata())
+                    .build());
+        });
+        return new InMemoryClientRegistrationRepository(registrations);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,99 @@
+package org.sstec.resourceserver;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.oauth2.jwt.Jwt;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class KeycloakRealmRoleAndScopeConverterTests {
+
+	private final KeycloakRealmRoleAndScopeConverter converter = new KeycloakRealmRoleAndScopeConverter(100,
+			new GrantedAuthorityPool(100));
+
+	@Test
+	void mapsRealmRolesScopesAndClientRoles() {
+		Collection<GrantedAuthority> authorities = converter.convert(jwt("token-1", "id-1", Instant.now().plusSeconds(300)));
+
+		assertThat(authorities).extracting(GrantedAuthority::getAuthority)
+				.containsExactly("ROLE_app_user", "SCOPE_openid", "SCOPE_product:read", "ROLE_CLIENT_EDITOR");
+	}
+
+	@Test
+	void reusesTheAuthoritiesOfAToken() {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		converter.bindTo(registry);
+		Jwt jwt = jwt("token-1", "id-1", Instant.now().plusSeconds(300));
+
+		Collection<GrantedAuthority> first = converter.convert(jwt);
+		Collection<GrantedAuthority> second = converter.convert(jwt);
+
+		assertThat(second).isSameAs(first);
+		assertThat(registry.get("cache.gets").tag("cache", KeycloakRealmRoleAndScopeConverter.CACHE_NAME)
+				.tag("result", "hit").functionCounter().count()).isEqualTo(1);
+		assertThat(registry.get("cache.gets").tag("cache", KeycloakRealmRoleAndScopeConverter.CACHE_NAME)
+				.tag("result", "miss").functionCounter().count()).isEqualTo(1);
+	}
+
+	@Test
+	void keysTokensWithoutJtiByTheirValue() {
+		Instant expiresAt = Instant.now().plusSeconds(300);
+
+		Collection<GrantedAuthority> first = converter.convert(jwt("token-1", null, expiresAt));
+
+		assertThat(converter.convert(jwt("token-1", null, expiresAt))).isSameAs(first);
+		assertThat(converter.convert(jwt("token-2", null, expiresAt))).isNotSameAs(first);
+	}
+
+	@Test
+	void doesNotMixUpJtisAndHashedTokens() throws Exception {
+		Instant expiresAt = Instant.now().plusSeconds(300);
+		String hash = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256")
+				.digest("token-1".getBytes(StandardCharsets.US_ASCII)));
+
+		Collection<GrantedAuthority> first = converter.convert(jwt("token-1", null, expiresAt));
+
+		assertThat(converter.convert(jwt("token-2", "sha256:" + hash, expiresAt))).isNotSameAs(first);
+	}
+
+	@Test
+	void sharesAuthoritiesBetweenTokens() {
+		Instant expiresAt = Instant.now().plusSeconds(300);
+
+		Collection<GrantedAuthority> first = converter.convert(jwt("token-1", "id-1", expiresAt));
+		Collection<GrantedAuthority> second = converter.convert(jwt("token-2", "id-2", expiresAt));
+
+		assertThat(second).isNotSameAs(first);
+		assertThat(List.copyOf(second)).zipSatisfy(List.copyOf(first), (a, b) -> assertThat(a).isSameAs(b));
+	}
+
+	@Test
+	void doesNotKeepExpiredTokens() {
+		Jwt jwt = jwt("token-1", "id-1", Instant.now().minusSeconds(1));
+
+		assertThat(converter.convert(jwt)).isNotSameAs(converter.convert(jwt));
+	}
+
+	private static Jwt jwt(String tokenValue, String jti, Instant expiresAt) {
+		Jwt.Builder builder = Jwt.withTokenValue(tokenValue)
+				.header("alg", "RS256")
+				.issuedAt(Instant.now().minusSeconds(60))
+				.expiresAt(expiresAt)
+				.claim("realm_access", Map.of("roles", List.of("app_user")))
+				.claim("scope", "openid product:read")
+				.claim("resource_access", Map.of("spring-boot-app", Map.of("roles", List.of("editor"))));
+		if (jti != null) {
+			builder.jti(jti);
+		}
+		return builder.build();
+	}
+}
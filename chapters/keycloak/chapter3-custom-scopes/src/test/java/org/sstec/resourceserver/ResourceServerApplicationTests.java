@@ -3,7 +3,11 @@ package org.sstec.resourceserver;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
-@SpringBootTest
+// Starts from the saved issuer snapshot, so the context loads without a running Keycloak
+@SpringBootTest(properties = {
+		"keycloak.bootstrap.issuer-metadata=classpath:keycloak/openid-configuration.json",
+		"keycloak.bootstrap.jwks=classpath:keycloak/certs.json"
+})
 class ResourceServerApplicationTests {
 
 	@Test
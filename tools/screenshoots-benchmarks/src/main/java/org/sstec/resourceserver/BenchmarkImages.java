@@ -0,0 +1,72 @@
+package org.sstec.resourceserver;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Deterministic screenshot like test images, flat panels with text compress and blur like the real thing
+final class BenchmarkImages {
+
+    private BenchmarkImages() {
+    }
+
+    // Sizes by name, 720p to 5K
+    static BufferedImage screenshot(String size) {
+        switch (size) {
+            case "720p":
+                return screenshot(1280, 720);
+            case "1080p":
+                return screenshot(1920, 1080);
+            case "1440p":
+                return screenshot(2560, 1440);
+            case "4K":
+                return screenshot(3840, 2160);
+            case "5K":
+                return screenshot(5120, 2880);
+            default:
+                throw new IllegalArgumentException("Unknown image size: " + size);
+        }
+    }
+
+    static BufferedImage screenshot(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = image.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        Random random = new Random(42);
+        g2d.setColor(new Color(0xF5F5F7));
+        g2d.fillRect(0, 0, width, height);
+        g2d.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 14));
+        for (int i = 0; i < 40; i++) {
+            int x = random.nextInt(width);
+            int y = random.nextInt(height);
+            int w = 100 + random.nextInt(width / 3);
+            int h = 60 + random.nextInt(height / 3);
+            g2d.setColor(new Color(random.nextInt(0xFFFFFF)));
+            g2d.fillRoundRect(x, y, w, h, 12, 12);
+            g2d.setColor(Color.DARK_GRAY);
+            for (int line = 0; line < h / 20; line++) {
+                g2d.drawString("The quick brown fox jumps over the lazy dog " + i, x + 8, y + 20 + line * 20);
+            }
+        }
+        g2d.dispose();
+        return image;
+    }
+
+    // count non overlapping selections spread over the image
+    static List<Rectangle> selections(int count, int width, int height) {
+        Random random = new Random(7);
+        List<Rectangle> selections = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int w = 40 + random.nextInt(200);
+            int h = 30 + random.nextInt(120);
+            selections.add(new Rectangle(random.nextInt(width - w), random.nextInt(height - h), w, h));
+        }
+        return selections;
+    }
+}
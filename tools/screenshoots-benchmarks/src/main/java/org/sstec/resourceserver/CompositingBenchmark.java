@@ -0,0 +1,67 @@
+package org.sstec.resourceserver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// The compositing done by updateProcessedImage once the blur is cached: pasting the selections over the blur
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompositingBenchmark {
+
+    @Param({"1", "10", "100"})
+    int selectionCount;
+
+    @Param({"1080p", "4K"})
+    String size;
+
+    private BufferedImage original;
+    private BufferedImage blurred;
+    private BufferedImage otherBlurred;
+    private List<Rectangle> selections;
+    private SelectionCompositor compositor;
+    private int step;
+
+    @Setup
+    public void setUp() {
+        original = BenchmarkImages.screenshot(size);
+        GaussianFilter filter = new GaussianFilter(23);
+        blurred = filter.filter(original, null);
+        otherBlurred = filter.filter(original, null);
+        selections = BenchmarkImages.selections(selectionCount, original.getWidth(), original.getHeight());
+        compositor = new SelectionCompositor();
+        compositor.compose(original, blurred, selections);
+    }
+
+    // A new blur, every pixel gets recomposited
+    @Benchmark
+    public BufferedImage fullRecomposite() {
+        step++;
+        return compositor.compose(original, (step & 1) == 0 ? blurred : otherBlurred, selections);
+    }
+
+    // One selection dragged by a few pixels, what happens on every mouse drag event
+    @Benchmark
+    public BufferedImage dragOneSelection() {
+        step++;
+        selections.get(0).translate((step & 1) == 0 ? 3 : -3, 0);
+        return compositor.compose(original, blurred, selections);
+    }
+}
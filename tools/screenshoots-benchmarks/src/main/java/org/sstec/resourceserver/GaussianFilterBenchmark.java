@@ -0,0 +1,61 @@
+package org.sstec.resourceserver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+// Full image blur, the work behind every radius change
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GaussianFilterBenchmark {
+
+    @Param({"1", "5", "23", "50"})
+    int radius;
+
+    @Param({"720p", "1080p", "1440p", "4K", "5K"})
+    String size;
+
+    @Param({"EXACT", "BOX_APPROXIMATION"})
+    String mode; // GaussianFilter.Mode is package private, out of reach for the generated benchmark code
+
+    @Param({"false", "true"})
+    boolean parallel;
+
+    private BufferedImage source;
+    private BufferedImage target;
+    private GaussianFilter filter;
+
+    @Setup
+    public void setUp() {
+        source = BenchmarkImages.screenshot(size);
+        target = new BufferedImage(source.getWidth(), source.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        filter = new GaussianFilter(radius);
+        filter.setMode(GaussianFilter.Mode.valueOf(mode));
+        filter.setParallel(parallel);
+    }
+
+    @Benchmark
+    public BufferedImage filter() {
+        return filter.filter(source, target);
+    }
+
+    @Benchmark
+    public BufferedImage filterPreview() {
+        return filter.filterPreview(source, 4);
+    }
+}
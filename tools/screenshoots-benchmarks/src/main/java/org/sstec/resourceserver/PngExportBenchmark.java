@@ -0,0 +1,76 @@
+package org.sstec.resourceserver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Both PNG export paths and the compression presets against the ImageIO writer, written to memory so disk
+// speed does not count
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PngExportBenchmark {
+
+    @Param({"1080p", "4K"})
+    String size;
+
+    @Param({"FAST", "BALANCED", "SMALLEST"})
+    String compression;
+
+    private BufferedImage image;
+    private List<SelectionShape> shapes;
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream(1 << 22);
+
+    @Setup
+    public void setUp() {
+        image = BenchmarkImages.screenshot(size);
+        shapes = new ArrayList<>();
+        for (Rectangle bounds : BenchmarkImages.selections(10, image.getWidth(), image.getHeight())) {
+            shapes.add(new SelectionShape(bounds, "Rounded Rectangle", "Dashed", "Red", "Modern", 0));
+        }
+    }
+
+    // Save button: PNG with the shapes in a tEXt chunk
+    @Benchmark
+    public int writeWithShapes() throws IOException {
+        output.reset();
+        PngExporter.writeWithShapes(image, shapes, output);
+        return output.size();
+    }
+
+    // Plain PNG as saved with pills only, at the chosen compression
+    @Benchmark
+    public int write() throws IOException {
+        output.reset();
+        new PngEncoder(PngEncoder.Compression.valueOf(compression)).encode(image, output);
+        return output.size();
+    }
+
+    // What export used before PngEncoder, the compression param does not apply
+    @Benchmark
+    public int imageIoWrite() throws IOException {
+        output.reset();
+        ImageIO.write(image, "PNG", output);
+        return output.size();
+    }
+}
@@ -0,0 +1,85 @@
+package org.sstec.resourceserver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// A full launch of the app, from starting java to the first paint with all icons in, with and without the CDS
+// archive of the cds profile. Build it first (mvn -f ../screenshoots -Pcds package), the jar and archive are
+// taken from there unless -Dscreenshoots.jar and -Dscreenshoots.cdsArchive say otherwise. Needs a display.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class StartupBenchmark {
+
+    @Param({"none", "cds"})
+    String archive;
+
+    private List<String> command;
+    private Path iconCache;
+
+    @Setup
+    public void setUp() throws IOException {
+        File jar = new File(System.getProperty("screenshoots.jar", "../screenshoots/target/screenshoots.jar"));
+        File cdsArchive = new File(System.getProperty("screenshoots.cdsArchive", "../screenshoots/target/screenshoots.jsa"));
+        if (!jar.isFile() || (archive.equals("cds") && !cdsArchive.isFile())) {
+            throw new IllegalStateException("Build screenshoots with -Pcds first, missing " + jar + " or " + cdsArchive);
+        }
+
+        command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        if (archive.equals("cds")) {
+            command.add("-XX:SharedArchiveFile=" + cdsArchive.getAbsolutePath());
+        } else {
+            command.add("-Xshare:auto"); // The JDK's own archive only, as a plain launch
+        }
+        // Icons of their own, warmed by the warmup launches, instead of the user's icon cache
+        iconCache = Files.createTempDirectory("screenshoots-icons");
+        command.add("-Dscreenshoots.iconCacheDir=" + iconCache);
+        command.add("-jar");
+        command.add(jar.getAbsolutePath());
+        command.add("--exit-after-startup");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(iconCache)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public int launch() throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(command).redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        int exitCode = process.waitFor();
+        if (exitCode != 0) {
+            throw new IllegalStateException("screenshoots exited with " + exitCode);
+        }
+        return exitCode;
+    }
+}
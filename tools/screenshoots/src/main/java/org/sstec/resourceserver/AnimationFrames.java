@@ -0,0 +1,63 @@
+package org.sstec.resourceserver;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+// A walkthrough animation as the exporters see it: a full first frame, then one frame per layer, each frame
+// showing the first one with all layers up to its own drawn on top, such as the arrows between selections.
+// Frames after the first are rendered as deltas covering only their layer's bounds.
+final class AnimationFrames {
+
+    // Something drawn on top of the previous frame, all of it inside getBounds
+    interface Layer {
+        Rectangle getBounds();
+
+        void paint(Graphics2D g2d);
+    }
+
+    private AnimationFrames() {
+    }
+
+    // Bounds of layer clipped to the image, never empty so every layer still gets its frame and timing
+    static Rectangle deltaBounds(BufferedImage first, Layer layer) {
+        Rectangle bounds = layer.getBounds().intersection(new Rectangle(0, 0, first.getWidth(), first.getHeight()));
+        return bounds.isEmpty() ? new Rectangle(0, 0, 1, 1) : bounds;
+    }
+
+    // The bounds of layer index as they look with it drawn, pixels its frame leaves unchanged are transparent
+    static BufferedImage renderDelta(BufferedImage first, List<? extends Layer> layers, int index, Rectangle bounds) {
+        BufferedImage before = renderRegion(first, layers, index, bounds);
+        BufferedImage after = renderRegion(first, layers, index + 1, bounds);
+        int[] beforePixels = before.getRGB(0, 0, bounds.width, bounds.height, null, 0, bounds.width);
+        int[] afterPixels = after.getRGB(0, 0, bounds.width, bounds.height, null, 0, bounds.width);
+        for (int i = 0; i < afterPixels.length; i++) {
+            if (afterPixels[i] == beforePixels[i]) {
+                afterPixels[i] = 0;
+            }
+        }
+        after.setRGB(0, 0, bounds.width, bounds.height, afterPixels, 0, bounds.width);
+        return after;
+    }
+
+    // Region of first with the first layerCount layers drawn on top, the same as drawing them on the full image
+    private static BufferedImage renderRegion(BufferedImage first, List<? extends Layer> layers, int layerCount, Rectangle bounds) {
+        BufferedImage region = new BufferedImage(bounds.width, bounds.height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = region.createGraphics();
+        g2d.setComposite(AlphaComposite.Src);
+        g2d.drawImage(first, -bounds.x, -bounds.y, null);
+        g2d.setComposite(AlphaComposite.SrcOver);
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g2d.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+        g2d.translate(-bounds.x, -bounds.y);
+        for (int i = 0; i < layerCount; i++) {
+            layers.get(i).paint(g2d);
+        }
+        g2d.dispose();
+        return region;
+    }
+}
@@ -0,0 +1,396 @@
+package org.sstec.resourceserver;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+
+// Draws the selection shapes and numbered pills onto exported images, shared by the app and BatchBlurCli
+final class AnnotationRenderer {
+
+    private AnnotationRenderer() {
+    }
+
+    public static void drawShapeWithStyle(Graphics2D g2d, Rectangle rect, String shape, String borderStyle, String borderColor) {
+        // Draw shape shadow
+        g2d.setColor(new Color(0, 0, 0, 40));
+        switch (shape) {
+            case "Ellipse":
+                g2d.fillOval(rect.x + 2, rect.y + 2, rect.width, rect.height);
+                break;
+            case "Diamond":
+                int[] xPoints = {
+                    rect.x + rect.width/2 + 2,
+                    rect.x + rect.width + 2,
+                    rect.x + rect.width/2 + 2,
+                    rect.x + 2
+                };
+                int[] yPoints = {
+                    rect.y + 2,
+                    rect.y + rect.height/2 + 2,
+                    rect.y + rect.height + 2,
+                    rect.y + rect.height/2 + 2
+                };
+                g2d.fillPolygon(xPoints, yPoints, 4);
+                break;
+            case "Star":
+                int centerX = rect.x + rect.width/2 + 2;
+                int centerY = rect.y + rect.height/2 + 2;
+                int outerRadius = Math.min(rect.width, rect.height)/2;
+                int innerRadius = outerRadius/2;
+                int[] starXPoints = new int[10];
+                int[] starYPoints = new int[10];
+                for (int j = 0; j < 10; j++) {
+                    double angle = Math.PI * j / 5;
+                    int radius = (j % 2 == 0) ? outerRadius : innerRadius;
+                    starXPoints[j] = centerX + (int)(radius * Math.sin(angle));
+                    starYPoints[j] = centerY - (int)(radius * Math.cos(angle));
+                }
+                g2d.fillPolygon(starXPoints, starYPoints, 10);
+                break;
+            case "Hexagon":
+                int[] hexXPoints = new int[6];
+                int[] hexYPoints = new int[6];
+                for (int j = 0; j < 6; j++) {
+                    double angle = 2 * Math.PI * j / 6;
+                    int radius = Math.min(rect.width, rect.height)/2;
+                    hexXPoints[j] = rect.x + rect.width/2 + 2 + (int)(radius * Math.cos(angle));
+                    hexYPoints[j] = rect.y + rect.height/2 + 2 + (int)(radius * Math.sin(angle));
+                }
+                g2d.fillPolygon(hexXPoints, hexYPoints, 6);
+                break;
+            case "Octagon":
+                int[] octXPoints = new int[8];
+                int[] octYPoints = new int[8];
+                for (int j = 0; j < 8; j++) {
+                    double angle = 2 * Math.PI * j / 8;
+                    int radius = Math.min(rect.width, rect.height)/2;
+                    octXPoints[j] = rect.x + rect.width/2 + 2 + (int)(radius * Math.cos(angle));
+                    octYPoints[j] = rect.y + rect.height/2 + 2 + (int)(radius * Math.sin(angle));
+                }
+                g2d.fillPolygon(octXPoints, octYPoints, 8);
+                break;
+            case "Rounded Rectangle":
+                g2d.fillRoundRect(rect.x + 2, rect.y + 2, rect.width, rect.height, 20, 20);
+                break;
+            default: // Rectangle
+                g2d.fillRect(rect.x + 2, rect.y + 2, rect.width, rect.height);
+        }
+
+        // Set fill color to semi-transparent grey
+        g2d.setColor(new Color(200, 200, 200, 80));
+
+        // Fill the shape with semi-transparent grey color
+        switch (shape) {
+            case "Ellipse":
+                g2d.fillOval(rect.x, rect.y, rect.width, rect.height);
+                break;
+            case "Diamond":
+                int[] xPointsFill = {
+                    rect.x + rect.width/2,
+                    rect.x + rect.width,
+                    rect.x + rect.width/2,
+                    rect.x
+                };
+                int[] yPointsFill = {
+                    rect.y,
+                    rect.y + rect.height/2,
+                    rect.y + rect.height,
+                    rect.y + rect.height/2
+                };
+                g2d.fillPolygon(xPointsFill, yPointsFill, 4);
+                break;
+            case "Star":
+                int centerXFill = rect.x + rect.width/2;
+                int centerYFill = rect.y + rect.height/2;
+                int outerRadiusFill = Math.min(rect.width, rect.height)/2;
+                int innerRadiusFill = outerRadiusFill/2;
+                int[] starXPointsFill = new int[10];
+                int[] starYPointsFill = new int[10];
+                for (int j = 0; j < 10; j++) {
+                    double angle = Math.PI * j / 5;
+                    int radius = (j % 2 == 0) ? outerRadiusFill : innerRadiusFill;
+                    starXPointsFill[j] = centerXFill + (int)(radius * Math.sin(angle));
+                    starYPointsFill[j] = centerYFill - (int)(radius * Math.cos(angle));
+                }
+                g2d.fillPolygon(starXPointsFill, starYPointsFill, 10);
+                break;
+            case "Hexagon":
+                int[] hexXPointsFill = new int[6];
+                int[] hexYPointsFill = new int[6];
+                for (int j = 0; j < 6; j++) {
+                    double angle = 2 * Math.PI * j / 6;
+                    int radius = Math.min(rect.width, rect.height)/2;
+                    hexXPointsFill[j] = rect.x + rect.width/2 + (int)(radius * Math.cos(angle));
+                    hexYPointsFill[j] = rect.y + rect.height/2 + (int)(radius * Math.sin(angle));
+                }
+                g2d.fillPolygon(hexXPointsFill, hexYPointsFill, 6);
+                break;
+            case "Octagon":
+                int[] octXPointsFill = new int[8];
+                int[] octYPointsFill = new int[8];
+                for (int j = 0; j < 8; j++) {
+                    double angle = 2 * Math.PI * j / 8;
+                    int radius = Math.min(rect.width, rect.height)/2;
+                    octXPointsFill[j] = rect.x + rect.width/2 + (int)(radius * Math.cos(angle));
+                    octYPointsFill[j] = rect.y + rect.height/2 + (int)(radius * Math.sin(angle));
+                }
+                g2d.fillPolygon(octXPointsFill, octYPointsFill, 8);
+                break;
+            case "Rounded Rectangle":
+                g2d.fillRoundRect(rect.x, rect.y, rect.width, rect.height, 20, 20);
+                break;
+            default: // Rectangle
+                g2d.fillRect(rect.x, rect.y, rect.width, rect.height);
+        }
+
+        // Set border color (fully opaque)
+        switch (borderColor) {
+            case "Blue":
+                g2d.setColor(new Color(0, 122, 255));
+                break;
+            case "Green":
+                g2d.setColor(new Color(52, 199, 89));
+                break;
+            case "Purple":
+                g2d.setColor(new Color(175, 82, 222));
+                break;
+            case "Orange":
+                g2d.setColor(new Color(255, 149, 0));
+                break;
+            case "Teal":
+                g2d.setColor(new Color(90, 200, 250));
+                break;
+            default: // Red
+                g2d.setColor(new Color(255, 59, 48));
+        }
+
+        // Set border style
+        switch (borderStyle) {
+            case "Dotted":
+                g2d.setStroke(new BasicStroke(2.5f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND, 
+                    10.0f, new float[]{2.0f, 2.0f}, 0.0f));
+                break;
+            case "Double":
+                g2d.setStroke(new BasicStroke(2.5f));
+                break;
+            case "Groove":
+                g2d.setStroke(new BasicStroke(3.0f));
+                break;
+            case "Ridge":
+                g2d.setStroke(new BasicStroke(3.0f));
+                break;
+            default: // Solid or Dashed
+                if (borderStyle.equals("Dashed")) {
+                    g2d.setStroke(new BasicStroke(2.5f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 
+                        10.0f, new float[]{5.0f, 5.0f}, 0.0f));
+                } else {
+                    g2d.setStroke(new BasicStroke(2.5f));
+                }
+        }
+
+        // Draw the border
+        switch (shape) {
+            case "Ellipse":
+                g2d.drawOval(rect.x, rect.y, rect.width, rect.height);
+                break;
+            case "Diamond":
+                int[] xPointsBorder = {
+                    rect.x + rect.width/2,
+                    rect.x + rect.width,
+                    rect.x + rect.width/2,
+                    rect.x
+                };
+                int[] yPointsBorder = {
+                    rect.y,
+                    rect.y + rect.height/2,
+                    rect.y + rect.height,
+                    rect.y + rect.height/2
+                };
+                g2d.drawPolygon(xPointsBorder, yPointsBorder, 4);
+                break;
+            case "Star":
+                int centerXBorder = rect.x + rect.width/2;
+                int centerYBorder = rect.y + rect.height/2;
+                int outerRadiusBorder = Math.min(rect.width, rect.height)/2;
+                int innerRadiusBorder = outerRadiusBorder/2;
+                int[] starXPointsBorder = new int[10];
+                int[] starYPointsBorder = new int[10];
+                for (int j = 0; j < 10; j++) {
+                    double angle = Math.PI * j / 5;
+                    int radius = (j % 2 == 0) ? outerRadiusBorder : innerRadiusBorder;
+                    starXPointsBorder[j] = centerXBorder + (int)(radius * Math.sin(angle));
+                    starYPointsBorder[j] = centerYBorder - (int)(radius * Math.cos(angle));
+                }
+                g2d.drawPolygon(starXPointsBorder, starYPointsBorder, 10);
+                break;
+            case "Hexagon":
+                int[] hexXPointsBorder = new int[6];
+                int[] hexYPointsBorder = new int[6];
+                for (int j = 0; j < 6; j++) {
+                    double angle = 2 * Math.PI * j / 6;
+                    int radius = Math.min(rect.width, rect.height)/2;
+                    hexXPointsBorder[j] = rect.x + rect.width/2 + (int)(radius * Math.cos(angle));
+                    hexYPointsBorder[j] = rect.y + rect.height/2 + (int)(radius * Math.sin(angle));
+                }
+                g2d.drawPolygon(hexXPointsBorder, hexYPointsBorder, 6);
+                break;
+            case "Octagon":
+                int[] octXPointsBorder = new int[8];
+                int[] octYPointsBorder = new int[8];
+                for (int j = 0; j < 8; j++) {
+                    double angle = 2 * Math.PI * j / 8;
+                    int radius = Math.min(rect.width, rect.height)/2;
+                    octXPointsBorder[j] = rect.x + rect.width/2 + (int)(radius * Math.cos(angle));
+                    octYPointsBorder[j] = rect.y + rect.height/2 + (int)(radius * Math.sin(angle));
+                }
+                g2d.drawPolygon(octXPointsBorder, octYPointsBorder, 8);
+                break;
+            case "Rounded Rectangle":
+                g2d.drawRoundRect(rect.x, rect.y, rect.width, rect.height, 20, 20);
+                break;
+            default: // Rectangle
+                g2d.drawRect(rect.x, rect.y, rect.width, rect.height);
+        }
+
+        // Draw additional border effects
+        if (borderStyle.equals("Double")) {
+            g2d.setStroke(new BasicStroke(1.0f));
+            g2d.drawRect(rect.x + 3, rect.y + 3, rect.width - 6, rect.height - 6);
+        } else if (borderStyle.equals("Groove")) {
+            g2d.setColor(new Color(0, 0, 0, 50));
+            g2d.drawRect(rect.x + 1, rect.y + 1, rect.width - 2, rect.height - 2);
+        } else if (borderStyle.equals("Ridge")) {
+            g2d.setColor(new Color(255, 255, 255, 50));
+            g2d.drawRect(rect.x + 1, rect.y + 1, rect.width - 2, rect.height - 2);
+        }
+    }
+
+    public static void drawPillWithStyle(Graphics2D g2d, Rectangle rect, int index, int position, String pillStyle) {
+        // Calculate pill size
+        int pillWidth = (int)(rect.width * ImagePanel.PILL_SIZE_RATIO);
+        int pillHeight = (int)(rect.height * ImagePanel.PILL_SIZE_RATIO);
+        pillWidth = Math.max(ImagePanel.MIN_PILL_SIZE, Math.min(ImagePanel.MAX_PILL_SIZE, pillWidth));
+        pillHeight = Math.max(ImagePanel.MIN_PILL_SIZE, Math.min(ImagePanel.MAX_PILL_SIZE, pillHeight));
+        
+        // Draw pill
+        String number = String.valueOf(index + 1);
+        Font originalFont = g2d.getFont();
+        int fontSize = (int) (Math.min(pillWidth, pillHeight) * 0.6);
+        g2d.setFont(new Font(originalFont.getName(), Font.BOLD, fontSize));
+        
+        FontMetrics fm = g2d.getFontMetrics();
+        int textWidth = fm.stringWidth(number);
+        pillWidth = Math.max(pillWidth, textWidth + (pillHeight / 4));
+        
+        // Calculate pill position
+        int pillX, pillY;
+        int padding = pillHeight / 4;
+        
+        switch (position) {
+            case 0: // Top right inside
+                pillX = rect.x + rect.width - pillWidth - padding;
+                pillY = rect.y + padding;
+                break;
+            case 1: // Top left inside
+                pillX = rect.x + padding;
+                pillY = rect.y + padding;
+                break;
+            case 2: // Bottom left inside
+                pillX = rect.x + padding;
+                pillY = rect.y + rect.height - pillHeight - padding;
+                break;
+            case 3: // Bottom right inside
+                pillX = rect.x + rect.width - pillWidth - padding;
+                pillY = rect.y + rect.height - pillHeight - padding;
+                break;
+            case 4: // Top right outside
+                pillX = rect.x + rect.width + padding;
+                pillY = rect.y - pillHeight - padding;
+                break;
+            case 5: // Top left outside
+                pillX = rect.x - pillWidth - padding;
+                pillY = rect.y - pillHeight - padding;
+                break;
+            case 6: // Bottom left outside
+                pillX = rect.x - pillWidth - padding;
+                pillY = rect.y + rect.height + padding;
+                break;
+            case 7: // Bottom right outside
+                pillX = rect.x + rect.width + padding;
+                pillY = rect.y + rect.height + padding;
+                break;
+            default:
+                pillX = rect.x + rect.width - pillWidth - padding;
+                pillY = rect.y + padding;
+        }
+        
+        // Draw pill based on style
+        switch (pillStyle) {
+            case "Classic":
+                // Draw classic pill with gradient
+                GradientPaint gradient = new GradientPaint(
+                    pillX, pillY, new Color(255, 59, 48),
+                    pillX, pillY + pillHeight, new Color(255, 59, 48, 200)
+                );
+                g2d.setPaint(gradient);
+                g2d.fillRoundRect(pillX, pillY, pillWidth, pillHeight, 
+                                pillHeight / 2, pillHeight / 2);
+                g2d.setColor(new Color(255, 255, 255, 50));
+                g2d.drawRoundRect(pillX, pillY, pillWidth, pillHeight, 
+                                pillHeight / 2, pillHeight / 2);
+                break;
+                
+            case "Minimal":
+                // Draw minimal pill with thin border
+                g2d.setColor(new Color(255, 59, 48, 180));
+                g2d.fillRoundRect(pillX, pillY, pillWidth, pillHeight, 
+                                pillHeight / 2, pillHeight / 2);
+                g2d.setColor(new Color(255, 59, 48));
+                g2d.setStroke(new BasicStroke(1.0f));
+                g2d.drawRoundRect(pillX, pillY, pillWidth, pillHeight, 
+                                pillHeight / 2, pillHeight / 2);
+                break;
+                
+            case "Bold":
+                // Draw bold pill with thick border
+                g2d.setColor(new Color(255, 59, 48));
+                g2d.fillRoundRect(pillX, pillY, pillWidth, pillHeight, 
+                                pillHeight / 2, pillHeight / 2);
+                g2d.setColor(Color.WHITE);
+                g2d.setStroke(new BasicStroke(2.0f));
+                g2d.drawRoundRect(pillX, pillY, pillWidth, pillHeight, 
+                                pillHeight / 2, pillHeight / 2);
+                break;
+                
+            case "Outline":
+                // Draw outline pill with no fill
+                g2d.setColor(new Color(255, 59, 48));
+                g2d.setStroke(new BasicStroke(2.0f));
+                g2d.drawRoundRect(pillX, pillY, pillWidth, pillHeight, 
+                                pillHeight / 2, pillHeight / 2);
+                break;
+                
+            default: // Modern
+                // Draw modern pill with shadow
+                g2d.setColor(new Color(0, 0, 0, 40));
+                g2d.fillRoundRect(pillX + 2, pillY + 2, pillWidth, pillHeight, 
+                                pillHeight / 2, pillHeight / 2);
+                g2d.setColor(new Color(255, 59, 48, 230));
+                g2d.fillRoundRect(pillX, pillY, pillWidth, pillHeight, 
+                                pillHeight / 2, pillHeight / 2);
+        }
+        
+        // Draw pill text
+        g2d.setColor(Color.WHITE);
+        int textX = pillX + (pillWidth - textWidth) / 2;
+        int textY = pillY + (pillHeight + fm.getAscent() - fm.getDescent()) / 2;
+        g2d.drawString(number, textX, textY);
+        
+        // Restore original font
+        g2d.setFont(originalFont);
+    }
+}
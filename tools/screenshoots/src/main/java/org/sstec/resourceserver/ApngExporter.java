@@ -0,0 +1,90 @@
+package org.sstec.resourceserver;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+// Animated PNG of AnimationFrames in full color. The first frame is the regular image data, so viewers
+// without APNG support show it as a still. Every later frame covers only its layer's bounds and is blended
+// over the previous frame with its unchanged pixels transparent, and is encoded as soon as it is rendered,
+// so only one delta is in memory at a time.
+// Blending over assumes the first frame is opaque, which the walkthrough's white background makes sure of.
+final class ApngExporter {
+    private static final byte DISPOSE_NONE = 0;
+    private static final byte BLEND_SOURCE = 0;
+    private static final byte BLEND_OVER = 1;
+
+    private ApngExporter() {
+    }
+
+    // encoder carries the compression settings, looping forever, a partly written file is deleted
+    public static void write(BufferedImage first, List<? extends AnimationFrames.Layer> layers, int delayMillis,
+                             File file, PngEncoder encoder) throws IOException {
+        boolean written = false;
+        try (OutputStream output = new BufferedOutputStream(new FileOutputStream(file))) {
+            write(first, layers, delayMillis, output, encoder);
+            written = true;
+        } finally {
+            if (!written && !file.delete()) {
+                System.err.println("Could not delete incomplete file " + file);
+            }
+        }
+    }
+
+    public static void write(BufferedImage first, List<? extends AnimationFrames.Layer> layers, int delayMillis,
+                             OutputStream output, PngEncoder encoder) throws IOException {
+        DataOutputStream out = new DataOutputStream(output);
+        // Deltas need alpha for their unchanged pixels, so all frames are RGBA
+        encoder.writeHeader(out, first.getWidth(), first.getHeight(), true);
+
+        byte[] animationControl = new byte[8];
+        PngEncoder.putInt(animationControl, 0, layers.size() + 1); // Frames
+        PngEncoder.putInt(animationControl, 4, 0); // Plays, 0 loops forever
+        PngEncoder.writeChunk(out, "acTL", animationControl, animationControl.length);
+
+        // fcTL and fdAT chunks share one sequence
+        int[] sequence = {0};
+        writeFrameControl(out, sequence, new Rectangle(0, 0, first.getWidth(), first.getHeight()), delayMillis, BLEND_SOURCE);
+        encoder.writeImageData(first, true, (data, length) -> PngEncoder.writeChunk(out, "IDAT", data, length));
+
+        // Same data as IDAT, each piece prefixed with its sequence number
+        byte[] frameData = new byte[4 + PngEncoder.IDAT_CHUNK_BYTES];
+        for (int i = 0; i < layers.size(); i++) {
+            Rectangle bounds = AnimationFrames.deltaBounds(first, layers.get(i));
+            BufferedImage delta = AnimationFrames.renderDelta(first, layers, i, bounds);
+            writeFrameControl(out, sequence, bounds, delayMillis, BLEND_OVER);
+            encoder.writeImageData(delta, true, (data, length) -> {
+                PngEncoder.putInt(frameData, 0, sequence[0]++);
+                System.arraycopy(data, 0, frameData, 4, length);
+                PngEncoder.writeChunk(out, "fdAT", frameData, 4 + length);
+            });
+        }
+
+        PngEncoder.writeChunk(out, "IEND", new byte[0], 0);
+        out.flush();
+    }
+
+    private static void writeFrameControl(DataOutputStream out, int[] sequence, Rectangle bounds, int delayMillis,
+                                          byte blend) throws IOException {
+        byte[] frameControl = new byte[26];
+        PngEncoder.putInt(frameControl, 0, sequence[0]++);
+        PngEncoder.putInt(frameControl, 4, bounds.width);
+        PngEncoder.putInt(frameControl, 8, bounds.height);
+        PngEncoder.putInt(frameControl, 12, bounds.x);
+        PngEncoder.putInt(frameControl, 16, bounds.y);
+        // Delay as a fraction, delayMillis / 1000 seconds
+        frameControl[20] = (byte) (delayMillis >>> 8);
+        frameControl[21] = (byte) delayMillis;
+        frameControl[22] = (byte) (1000 >>> 8);
+        frameControl[23] = (byte) (1000 & 0xFF);
+        frameControl[24] = DISPOSE_NONE;
+        frameControl[25] = blend;
+        PngEncoder.writeChunk(out, "fcTL", frameControl, frameControl.length);
+    }
+}
@@ -0,0 +1,309 @@
+package org.sstec.resourceserver;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+// Headless batch mode for documentation screenshots: blurs every image listed in a JSON spec and draws its
+// shapes and pills the same way the Save button does, several files at a time.
+//
+//   java -cp <classpath> org.sstec.resourceserver.BatchBlurCli <input dir> <spec.json> <output dir>
+//        [--threads <n>] [--memory-mb <mb>] [--strip-rows <rows>]
+//
+// The spec reuses the fields of the "Shapes" metadata PngExporter writes, blurRadius can be set per image:
+//   {"blurRadius": 23,
+//    "images": {"login.png": {"blurRadius": 10, "shapes": [{"x": 10, "y": 20, "width": 200, "height": 80,
+//       "type": "Rounded Rectangle", "borderStyle": "Dashed", "borderColor": "Red",
+//       "pillStyle": "Modern", "pillPosition": 0}]}}}
+// x, y, width and height are required. An image whose shapes have other fields than these fails.
+//
+// Every image is decoded, blurred and composited in memory, so the work running at the same time is limited
+// by an estimate of the bytes each image needs instead of only by the thread count. Images too large for
+// their share of the budget, or all of them with --strip-rows, are streamed through TiledBlurImage instead.
+public class BatchBlurCli {
+    // Full size int buffers alive per image: decoded original, blur, output and the two GaussianFilter scratch buffers
+    private static final int BUFFERS_PER_IMAGE = 5;
+    private static final int BYTES_PER_MB = 1 << 20;
+
+    private static final List<String> SHAPE_FIELDS = List.of("x", "y", "width", "height", "type", "borderStyle",
+            "borderColor", "pillStyle", "pillPosition", "pillSize");
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        if (args.length < 3) {
+            exitWithUsage(null);
+        }
+        File inputDir = new File(args[0]);
+        File specFile = new File(args[1]);
+        File outputDir = new File(args[2]);
+        int threads = Runtime.getRuntime().availableProcessors();
+        long memoryMb = Runtime.getRuntime().maxMemory() / 2 / BYTES_PER_MB;
+        int stripRows = 0;
+        for (int i = 3; i < args.length; i += 2) {
+            String option = args[i];
+            if (i + 1 == args.length) {
+                exitWithUsage("Missing value for " + option);
+            }
+            try {
+                if (option.equals("--threads")) {
+                    threads = Integer.parseInt(args[i + 1]);
+                } else if (option.equals("--memory-mb")) {
+                    memoryMb = Long.parseLong(args[i + 1]);
+                } else if (option.equals("--strip-rows")) {
+                    stripRows = Integer.parseInt(args[i + 1]);
+                } else {
+                    exitWithUsage("Unknown option " + option);
+                }
+            } catch (NumberFormatException e) {
+                exitWithUsage("Not a number for " + option + ": " + args[i + 1]);
+            }
+        }
+        if (threads < 1) {
+            exitWithUsage("--threads must be at least 1");
+        }
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            System.err.println("Could not create output directory " + outputDir);
+            System.exit(1);
+        }
+
+        JsonNode spec = new ObjectMapper().readTree(specFile);
+        int defaultRadius = spec.path("blurRadius").asInt(23);
+        int failures = new BatchBlurCli().run(inputDir, spec.path("images"), defaultRadius, outputDir, threads, memoryMb,
+                stripRows);
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void exitWithUsage(String error) {
+        if (error != null) {
+            System.err.println(error);
+        }
+        System.err.println("Usage: BatchBlurCli <input dir> <spec.json> <output dir> [--threads <n>] [--memory-mb <mb>]"
+                + " [--strip-rows <rows>]");
+        System.exit(2);
+    }
+
+    // Returns the number of images that failed. stripRows 0 streams only the images that need it.
+    int run(File inputDir, JsonNode images, int defaultRadius, File outputDir, int threads, long memoryMb,
+            int stripRows) throws InterruptedException {
+        int permits = (int) Math.min(Integer.MAX_VALUE, Math.max(1, memoryMb));
+        long shareBytes = (long) permits * BYTES_PER_MB / threads;
+        Semaphore memory = new Semaphore(permits);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Boolean>> results = new ArrayList<>();
+
+        Iterator<Map.Entry<String, JsonNode>> entries = images.fields();
+        while (entries.hasNext()) {
+            Map.Entry<String, JsonNode> entry = entries.next();
+            File input = new File(inputDir, entry.getKey());
+            JsonNode imageSpec = entry.getValue();
+            results.add(executor.submit(() -> {
+                try {
+                    int blurRadius = imageSpec.path("blurRadius").asInt(defaultRadius);
+                    List<SelectionShape> shapes = parseShapes(imageSpec.path("shapes")); // Before waiting for memory
+                    // From the header, decoding happens once the memory is granted
+                    Dimension size = ImageSizes.read(input);
+                    long bytes = bufferBytes(size.width, size.height);
+                    int reach = reach(blurRadius);
+                    int rows = stripRows;
+                    if (rows <= 0 && bytes > shareBytes) {
+                        // Strips plus the halo the blur reads above and below them fit the share
+                        rows = (int) Math.max(64, shareBytes / bufferBytes(size.width, 1) - 2L * reach);
+                    }
+                    if (rows > 0) {
+                        bytes = bufferBytes(size.width, (int) Math.min(size.height, rows + 2L * reach));
+                    }
+
+                    // An image larger than the whole budget still runs, just alone
+                    int needed = (int) Math.min(permits, Math.max(1, bytes / BYTES_PER_MB));
+                    memory.acquire(needed);
+                    try {
+                        if (rows > 0) {
+                            processTiled(input, blurRadius, shapes, outputDir, rows);
+                        } else {
+                            process(input, blurRadius, shapes, outputDir);
+                        }
+                    } finally {
+                        memory.release(needed);
+                    }
+                    System.out.println("Processed " + input.getName());
+                    return true;
+                } catch (Exception e) {
+                    System.err.println("Error processing " + input + ": " + e.getMessage());
+                    e.printStackTrace();
+                    return false;
+                }
+            }));
+        }
+        executor.shutdown();
+
+        int failures = 0;
+        for (Future<Boolean> result : results) {
+            try {
+                if (!result.get()) {
+                    failures++;
+                }
+            } catch (ExecutionException e) {
+                failures++;
+            }
+        }
+        return failures;
+    }
+
+    static void process(File input, int blurRadius, List<SelectionShape> shapes, File outputDir) throws IOException {
+        BufferedImage original = ImageIO.read(input);
+        if (original == null) {
+            throw new IOException("Not a readable image");
+        }
+
+        BufferedImage blurred = original;
+        if (blurRadius > 0) {
+            // Files run in parallel already, so each blur stays single threaded. A filter per image, its scratch
+            // buffers are counted in BUFFERS_PER_IMAGE and must not outlive the memory granted for the image.
+            GaussianFilter filter = new GaussianFilter(1);
+            BlurRenderer.configure(filter, blurRadius);
+            blurred = filter.filter(original, null);
+        }
+
+        List<Rectangle> selections = new ArrayList<>(shapes.size());
+        for (SelectionShape shape : shapes) {
+            selections.add(shape.getBounds());
+        }
+        BufferedImage capture = new SelectionCompositor().compose(original, blurred, selections);
+
+        // Draw shapes and pills on top, same as saving from the app
+        Graphics2D g2d = capture.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g2d.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+        for (int i = 0; i < shapes.size(); i++) {
+            SelectionShape shape = shapes.get(i);
+            AnnotationRenderer.drawShapeWithStyle(g2d, shape.getBounds(), shape.getShape(), shape.getBorderStyle(), shape.getBorderColor());
+            AnnotationRenderer.drawPillWithStyle(g2d, shape.getBounds(), i, shape.getPillPosition(), shape.getPillStyle());
+        }
+        g2d.dispose();
+
+        PngExporter.writeWithShapes(capture, shapes, outputFile(input, outputDir));
+    }
+
+    // Same output as process, but the image is never fully in memory
+    static void processTiled(File input, int blurRadius, List<SelectionShape> shapes, File outputDir, int stripRows)
+            throws IOException {
+        ImageInputStream stream = ImageIO.createImageInputStream(input);
+        if (stream == null) {
+            throw new IOException("Could not open " + input);
+        }
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext()) {
+                throw new IOException("Not a readable image");
+            }
+            ImageReader reader = readers.next();
+            try {
+                // Not seek forward only, every strip reads its own source region
+                reader.setInput(stream, false, true);
+                TiledBlurImage image = new TiledBlurImage(reader, blurRadius, shapes, stripRows);
+                PngExporter.writeWithShapes(image, shapes, outputFile(input, outputDir));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static File outputFile(File input, File outputDir) {
+        String name = input.getName();
+        int dot = name.lastIndexOf('.');
+        return new File(outputDir, (dot > 0 ? name.substring(0, dot) : name) + ".png");
+    }
+
+    // Rows above and below a strip its blur reads, the same TiledBlurImage reads
+    private static int reach(int blurRadius) {
+        if (blurRadius <= 0) {
+            return 0;
+        }
+        GaussianFilter filter = new GaussianFilter(1);
+        BlurRenderer.configure(filter, blurRadius);
+        return filter.getReach();
+    }
+
+    private static long bufferBytes(int width, int height) {
+        return ImageSizes.bufferBytes(width, height, BUFFERS_PER_IMAGE);
+    }
+
+    // x, y, width and height are required, the rest default to the app's defaults. Throws
+    // IllegalArgumentException for a missing or unknown field, or one of the wrong type.
+    static List<SelectionShape> parseShapes(JsonNode shapesNode) {
+        List<SelectionShape> shapes = new ArrayList<>();
+        if (shapesNode.isMissingNode()) {
+            return shapes;
+        }
+        if (!shapesNode.isArray()) {
+            throw new IllegalArgumentException("\"shapes\" must be an array");
+        }
+        for (JsonNode node : shapesNode) {
+            String shapeName = "Shape " + shapes.size();
+            if (!node.isObject()) {
+                throw new IllegalArgumentException(shapeName + " must be an object");
+            }
+            Iterator<String> fieldNames = node.fieldNames();
+            while (fieldNames.hasNext()) {
+                String field = fieldNames.next();
+                if (!SHAPE_FIELDS.contains(field)) {
+                    throw new IllegalArgumentException(shapeName + " has an unknown field \"" + field + "\"");
+                }
+            }
+            for (String field : List.of("x", "y", "width", "height")) {
+                if (!node.path(field).isInt()) {
+                    throw new IllegalArgumentException(shapeName + " needs an integer \"" + field + "\"");
+                }
+            }
+            for (String field : List.of("type", "borderStyle", "borderColor", "pillStyle")) {
+                if (node.has(field) && !node.get(field).isTextual()) {
+                    throw new IllegalArgumentException(shapeName + " needs a string \"" + field + "\"");
+                }
+            }
+            if (node.has("pillPosition") && !node.get("pillPosition").isInt()) {
+                throw new IllegalArgumentException(shapeName + " needs an integer \"pillPosition\"");
+            }
+            if (node.has("pillSize") && !node.get("pillSize").isNumber()) {
+                throw new IllegalArgumentException(shapeName + " needs a number \"pillSize\"");
+            }
+            Rectangle bounds = new Rectangle(node.path("x").asInt(), node.path("y").asInt(),
+                    node.path("width").asInt(), node.path("height").asInt());
+            SelectionShape shape = new SelectionShape(bounds,
+                    node.path("type").asText("Rounded Rectangle"),
+                    node.path("borderStyle").asText("Dashed"),
+                    node.path("borderColor").asText("Red"),
+                    node.path("pillStyle").asText("Modern"),
+                    node.path("pillPosition").asInt(0));
+            if (node.has("pillSize")) {
+                shape.setPillSize(node.path("pillSize").asDouble());
+            }
+            shapes.add(shape);
+        }
+        return shapes;
+    }
+}
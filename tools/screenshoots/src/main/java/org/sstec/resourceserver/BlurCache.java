@@ -0,0 +1,91 @@
+package org.sstec.resourceserver;
+
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Blurred copies of an image keyed by source image identity and radius, least recently used ones are
+// dropped once the pixels stored exceed the byte budget. Shared by the render and prefetch threads.
+// Images put here must not be written to afterwards.
+class BlurCache {
+    // Override with -Dscreenshoots.blurCacheBytes=<bytes>, defaults to a quarter of the heap
+    static final long DEFAULT_BUDGET_BYTES = Long.getLong("screenshoots.blurCacheBytes", Runtime.getRuntime().maxMemory() / 4);
+
+    private final long budgetBytes;
+    private long usedBytes;
+    private final LinkedHashMap<Key, BufferedImage> entries = new LinkedHashMap<>(16, 0.75f, true); // Access order
+    private BufferedImage retained; // Set by retainOnly, blurs of other images are not taken in
+
+    BlurCache(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    public synchronized BufferedImage get(BufferedImage source, int radius) {
+        return entries.get(new Key(source, radius));
+    }
+
+    public synchronized boolean contains(BufferedImage source, int radius) {
+        return entries.containsKey(new Key(source, radius));
+    }
+
+    // Ignored when source is not the image last passed to retainOnly, e.g. a prefetch finishing after
+    // another image was opened
+    public synchronized void put(BufferedImage source, int radius, BufferedImage blurred) {
+        if (retained != null && source != retained) {
+            return;
+        }
+        BufferedImage previous = entries.put(new Key(source, radius), blurred);
+        if (previous != null) {
+            usedBytes -= sizeOf(previous);
+        }
+        usedBytes += sizeOf(blurred);
+        // The newest entry always stays, even when it alone is over the budget
+        Iterator<Map.Entry<Key, BufferedImage>> eldest = entries.entrySet().iterator();
+        while (usedBytes > budgetBytes && entries.size() > 1) {
+            usedBytes -= sizeOf(eldest.next().getValue());
+            eldest.remove();
+        }
+    }
+
+    // Drops the blurs of every image except source, they are of no use once another image is loaded
+    public synchronized void retainOnly(BufferedImage source) {
+        retained = source;
+        Iterator<Map.Entry<Key, BufferedImage>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Key, BufferedImage> entry = iterator.next();
+            if (entry.getKey().source != source) {
+                usedBytes -= sizeOf(entry.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    private static long sizeOf(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight() * 4; // Always INT_ARGB
+    }
+
+    private static final class Key {
+        final BufferedImage source;
+        final int radius;
+
+        Key(BufferedImage source, int radius) {
+            this.source = source;
+            this.radius = radius;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return source == other.source && radius == other.radius;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(source) + radius;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package org.sstec.resourceserver;
+
+import javax.swing.SwingUtilities;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+// Blurs and composites the processed image on a background thread.
+// Only the latest request matters: submitting a new one interrupts the render in progress,
+// and results of stale renders are never published.
+// Results are two persistent buffers used in turns, the one on screen is never written to.
+// Blurs are kept in a BlurCache, and neighbouring radii can be prefetched on a low priority thread.
+// When a large image needs a new blur, a cheap preview is published first and replaced by the real blur.
+class BlurRenderer {
+    // Radii above this use the box blur approximation, override with -Dscreenshoots.boxBlurThreshold=<radius>
+    private static final int BOX_BLUR_RADIUS_THRESHOLD = Integer.getInteger("screenshoots.boxBlurThreshold", 15);
+    // Images from this many pixels on get a preview blurred at 1/PREVIEW_SCALE of their size
+    private static final long PROGRESSIVE_MIN_PIXELS = 1 << 20;
+    private static final int PREVIEW_SCALE = 4;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "blur-renderer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "blur-prefetch");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private final BlurCache blurCache = new BlurCache(BlurCache.DEFAULT_BUDGET_BYTES);
+
+    // Only touched on the render thread
+    private final GaussianFilter blurFilter = new GaussianFilter(1); // Keeps its scratch buffers between blurs
+    private BufferedImage lastSource;
+    private final SelectionCompositor[] compositors = {new SelectionCompositor(), new SelectionCompositor()};
+
+    // Only touched on the prefetch thread, single threaded so prefetching leaves the pool to the renderer
+    private final GaussianFilter prefetchFilter = new GaussianFilter(1);
+
+    // Last result handed to the EDT, written on the EDT
+    private volatile BufferedImage displayedImage;
+
+    // Only touched on the EDT
+    private Future<BufferedImage> pendingRender;
+    private long latestRequest;
+    private Future<?> pendingPrefetch;
+    private BufferedImage prefetchedSource;
+    private int[] prefetchedRadii;
+
+    BlurRenderer() {
+        blurFilter.setParallel(Runtime.getRuntime().availableProcessors() > 1);
+    }
+
+    // Called on the EDT. Selections are copied here, so later edits by the UI do not race with the render.
+    // onRendered may first get a preview, with isFinal false, before the result.
+    public void submit(BufferedImage originalImage, int blurRadius, List<Rectangle> selections,
+                       RenderListener onRendered) {
+        cancel();
+        List<Rectangle> snapshot = new ArrayList<>(selections.size());
+        for (Rectangle rect : selections) {
+            snapshot.add(new Rectangle(rect));
+        }
+        long request = ++latestRequest;
+        pendingRender = executor.submit(() -> {
+            BufferedImage result;
+            try {
+                result = render(originalImage, blurRadius, snapshot, preview -> publish(request, preview, false, onRendered));
+            } catch (CancellationException e) {
+                return null; // A newer request took over
+            } catch (RuntimeException e) {
+                System.err.println("Error rendering blurred image: " + e.getMessage());
+                e.printStackTrace();
+                throw e;
+            }
+            publish(request, result, true, onRendered);
+            return result;
+        });
+    }
+
+    // Hands image to the EDT unless a newer request came in meanwhile
+    private void publish(long request, BufferedImage image, boolean isFinal, RenderListener onRendered) {
+        SwingUtilities.invokeLater(() -> {
+            if (request == latestRequest) {
+                displayedImage = image;
+                onRendered.rendered(image, isFinal);
+            }
+        });
+    }
+
+    // Called on the EDT. Blurs source with each of radii in the background unless already cached.
+    // Asking again for the same radii is a no-op, asking for others replaces the prefetch in progress.
+    public void prefetch(BufferedImage source, int... radii) {
+        if (source == prefetchedSource && Arrays.equals(radii, prefetchedRadii)) {
+            return;
+        }
+        if (pendingPrefetch != null) {
+            pendingPrefetch.cancel(true);
+        }
+        prefetchedSource = source;
+        prefetchedRadii = radii.clone();
+        int[] queue = prefetchedRadii;
+        pendingPrefetch = prefetchExecutor.submit(() -> {
+            try {
+                for (int radius : queue) {
+                    if (!blurCache.contains(source, radius)) {
+                        blurCache.put(source, radius, blur(prefetchFilter, source, radius));
+                    }
+                }
+            } catch (CancellationException e) {
+                // Replaced by a newer prefetch
+            } catch (RuntimeException e) {
+                System.err.println("Error prefetching blurred image: " + e.getMessage());
+                e.printStackTrace();
+            }
+        });
+    }
+
+    // Called on the EDT when another image is opened. Stops the render and prefetch of the previous one
+    // and frees its cached blurs, blurs of it still finishing are not cached.
+    public void open(BufferedImage source) {
+        cancel();
+        if (pendingPrefetch != null) {
+            pendingPrefetch.cancel(true);
+            pendingPrefetch = null;
+        }
+        prefetchedSource = null;
+        prefetchedRadii = null;
+        blurCache.retainOnly(source);
+    }
+
+    // Interrupts the render in progress, if any, and drops its result
+    public void cancel() {
+        latestRequest++;
+        if (pendingRender != null) {
+            pendingRender.cancel(true);
+            pendingRender = null;
+        }
+    }
+
+    // Waits for the latest submitted render, returns null when there is none or it failed.
+    // Used before saving so the saved image matches the latest edits.
+    public BufferedImage awaitLatest() {
+        if (pendingRender == null) {
+            return null;
+        }
+        try {
+            BufferedImage result = pendingRender.get();
+            if (result != null) {
+                displayedImage = result;
+            }
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | CancellationException e) {
+            System.err.println("Error rendering blurred image: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    private BufferedImage render(BufferedImage originalImage, int blurRadius, List<Rectangle> selections,
+                                 Consumer<BufferedImage> publishPreview) {
+        if (originalImage != lastSource) {
+            blurCache.retainOnly(originalImage);
+            lastSource = originalImage;
+        }
+        BufferedImage blurred = blurCache.get(originalImage, blurRadius);
+        if (blurred == null) {
+            if ((long) originalImage.getWidth() * originalImage.getHeight() >= PROGRESSIVE_MIN_PIXELS) {
+                // A new image of its own, so it never is one of the compositor buffers
+                configure(blurFilter, blurRadius);
+                BufferedImage preview = blurFilter.filterPreview(originalImage, PREVIEW_SCALE);
+                Graphics2D g2d = preview.createGraphics();
+                SelectionCompositor.pasteSelections(g2d, originalImage, selections,
+                        new Rectangle(0, 0, preview.getWidth(), preview.getHeight()));
+                g2d.dispose();
+                publishPreview.accept(preview);
+            }
+            blurred = blur(blurFilter, originalImage, blurRadius);
+            blurCache.put(originalImage, blurRadius, blurred);
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException();
+        }
+
+        SelectionCompositor compositor = compositors[0].getBuffer() == displayedImage ? compositors[1] : compositors[0];
+        return compositor.compose(originalImage, blurred, selections);
+    }
+
+    // Radius and the mode that suits it, also used by BatchBlurCli
+    static void configure(GaussianFilter filter, int radius) {
+        filter.setRadius(radius);
+        filter.setMode(radius > BOX_BLUR_RADIUS_THRESHOLD
+                ? GaussianFilter.Mode.BOX_APPROXIMATION : GaussianFilter.Mode.EXACT);
+    }
+
+    // Gets the images of a submitted request on the EDT
+    interface RenderListener {
+        void rendered(BufferedImage image, boolean isFinal);
+    }
+
+    private static BufferedImage blur(GaussianFilter filter, BufferedImage source, int radius) {
+        configure(filter, radius);
+        return filter.filter(source, new BufferedImage(source.getWidth(), source.getHeight(), BufferedImage.TYPE_INT_ARGB));
+    }
+}
@@ -1,40 +1,482 @@
 package org.sstec.resourceserver;
 
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
-import java.awt.image.Kernel;
-import java.awt.image.ConvolveOp;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
+// Separable gaussian blur working directly on packed int ARGB pixels.
+// Colors are premultiplied before convolving, so transparent pixels do not darken their neighbours,
+// and in EXACT mode pixels closer than radius to an edge are copied unchanged (same as ConvolveOp.EDGE_NO_OP).
 class GaussianFilter {
-    private final int radius;
-    private final float[] horizontalKernel;
-    private final float[] verticalKernel;
-    private final ConvolveOp horizontalOp;
-    private final ConvolveOp verticalOp;
+    private static final int WEIGHT_SHIFT = 16;
+    private static final int WEIGHT_ONE = 1 << WEIGHT_SHIFT;
+    private static final int WEIGHT_HALF = WEIGHT_ONE >> 1;
+    private static final int BOX_PASSES = 3;
+    // Smallest bands worth handing to another thread. Single threaded runs use bands four times as large,
+    // interruption of the calling thread is checked between bands.
+    private static final int MIN_ROW_BAND = 16;
+    private static final int MIN_COLUMN_BAND = 64;
+    private static final int MIN_PIXEL_BAND = 1 << 14;
+
+    enum Mode {
+        EXACT,            // Full gaussian kernel, cost grows with the radius
+        BOX_APPROXIMATION // Three box blurs with sliding sums, cost per pixel does not depend on the radius
+    }
+
+    private int radius;
+    private Mode mode = Mode.EXACT;
+    private int[] kernelWeights; // Kernel in 16.16 fixed point, sums up to WEIGHT_ONE
+    private int[] boxRadii; // Radius of each box pass approximating the same sigma
+    private boolean parallel;
+    private final ForkJoinPool pool = ForkJoinPool.commonPool();
+    private GaussianFilter previewFilter; // Blurs the scaled down copy in filterPreview, has its own scratch buffers
+
+    // Scratch buffers reused between calls as long as the image size does not grow
+    private int[] pixelBuffer;
+    private int[] passBuffer;
+    private ChannelAccumulator rowAccumulator;
 
     public GaussianFilter(int radius) {
-        this.radius = Math.max(1, radius);
-        this.horizontalKernel = create1DGaussianKernel();
-        this.verticalKernel = horizontalKernel; // Same kernel for both directions
-        this.horizontalOp = new ConvolveOp(new Kernel(horizontalKernel.length, 1, horizontalKernel), ConvolveOp.EDGE_NO_OP, null);
-        this.verticalOp = new ConvolveOp(new Kernel(1, verticalKernel.length, verticalKernel), ConvolveOp.EDGE_NO_OP, null);
+        setRadius(radius);
+    }
+
+    public void setRadius(int radius) {
+        int newRadius = Math.max(1, radius);
+        if (kernelWeights != null && newRadius == this.radius) {
+            return;
+        }
+        this.radius = newRadius;
+        this.kernelWeights = toFixedPoint(create1DGaussianKernel());
+        this.boxRadii = createBoxRadii(newRadius / 3.0, BOX_PASSES);
+    }
+
+    public int getRadius() {
+        return radius;
+    }
+
+    // How many pixels away a source pixel still affects the result, in either direction
+    public int getReach() {
+        if (mode == Mode.BOX_APPROXIMATION) {
+            int reach = 0;
+            for (int boxRadius : boxRadii) {
+                reach += boxRadius;
+            }
+            return reach;
+        }
+        return radius;
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    // Splits the passes into bands running on the common ForkJoinPool. Every band reads its halo from the
+    // shared input buffer and writes only its own rows or columns, so the output is the same as single threaded.
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    public boolean isParallel() {
+        return parallel;
     }
 
     public BufferedImage filter(BufferedImage src, BufferedImage dst) {
+        int width = src.getWidth();
+        int height = src.getHeight();
         if (dst == null) {
-            dst = new BufferedImage(src.getWidth(), src.getHeight(), src.getType());
+            dst = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
         }
 
+        int pixelCount = width * height;
+        if (pixelBuffer == null || pixelBuffer.length < pixelCount) {
+            pixelBuffer = new int[pixelCount];
+            passBuffer = new int[pixelCount];
+        }
+        if (rowAccumulator == null || rowAccumulator.a.length < width) {
+            rowAccumulator = new ChannelAccumulator(width);
+        }
+
+        final int[] pixels = pixelBuffer;
+        final int[] pass = passBuffer;
+        int rowBand = bandSize(height, MIN_ROW_BAND);
+        int columnBand = bandSize(width, MIN_COLUMN_BAND);
 
-        // Apply horizontal convolution
-        BufferedImage temp = new BufferedImage(src.getWidth(), src.getHeight(), src.getType());
-        horizontalOp.filter(src, temp);
-        
-        // Apply vertical convolution
-        verticalOp.filter(temp, dst);
-        
+        boolean premultiplied = readPixels(src, pixels);
+        if (!premultiplied) {
+            forEachBand(pixelCount, bandSize(pixelCount, MIN_PIXEL_BAND), 0,
+                    (from, to, acc) -> premultiply(pixels, from, to));
+        }
+
+        if (mode == Mode.BOX_APPROXIMATION) {
+            // Ping-pong between the two buffers, the even number of passes leaves the result in pixelBuffer
+            int[] in = pixels, out = pass;
+            for (int boxRadius : boxRadii) {
+                int[] passIn = in, passOut = out;
+                forEachBand(height, rowBand, 0,
+                        (from, to, acc) -> horizontalBoxPass(passIn, passOut, width, from, to, boxRadius));
+                in = passOut;
+                out = passIn;
+            }
+            for (int boxRadius : boxRadii) {
+                int[] passIn = in, passOut = out;
+                forEachBand(width, columnBand, width,
+                        (from, to, acc) -> verticalBoxPass(passIn, passOut, width, height, from, to, boxRadius, acc));
+                in = passOut;
+                out = passIn;
+            }
+        } else {
+            forEachBand(height, rowBand, width,
+                    (from, to, acc) -> horizontalPass(pixels, pass, width, from, to, acc));
+            forEachBand(width, columnBand, width,
+                    (from, to, acc) -> verticalPass(pass, pixels, width, height, from, to, acc));
+        }
+
+        writePixels(dst, pixelBuffer);
         return dst;
     }
 
+    // Progressive mode: blurs a copy scaled down by scale with the radius scaled down the same way, and scales
+    // the result back up to the size of src. Much cheaper than filter, meant to be shown while it runs.
+    public BufferedImage filterPreview(BufferedImage src, int scale) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+        int smallWidth = Math.max(1, (width + scale - 1) / scale);
+        int smallHeight = Math.max(1, (height + scale - 1) / scale);
+
+        BufferedImage small = new BufferedImage(smallWidth, smallHeight, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = small.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2d.drawImage(src, 0, 0, smallWidth, smallHeight, null);
+        g2d.dispose();
+
+        if (previewFilter == null) {
+            previewFilter = new GaussianFilter(1);
+        }
+        previewFilter.setRadius(Math.round(radius / (float) scale));
+        previewFilter.setMode(mode);
+        previewFilter.setParallel(parallel);
+        previewFilter.filter(small, small); // Pixels are read into the scratch buffer first, so in place is fine
+
+        BufferedImage preview = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        g2d = preview.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2d.drawImage(small, 0, 0, width, height, null);
+        g2d.dispose();
+        return preview;
+    }
+
+    // Convolves rows [fromRow, toRow) of in into out. Taps are the outer loop so the inner loops
+    // stay simple array arithmetic that the JIT can vectorize.
+    private void horizontalPass(int[] in, int[] out, int width, int fromRow, int toRow, ChannelAccumulator acc) {
+        int[] weights = kernelWeights;
+        int r = radius;
+        int span = width - 2 * r;
+        for (int y = fromRow; y < toRow; y++) {
+            int rowStart = y * width;
+            if (span <= 0) {
+                System.arraycopy(in, rowStart, out, rowStart, width);
+                continue;
+            }
+            System.arraycopy(in, rowStart, out, rowStart, r);
+            System.arraycopy(in, rowStart + width - r, out, rowStart + width - r, r);
+            accumulateRows(in, rowStart, weights, 1, span, acc);
+            packRow(acc, out, rowStart + r, span);
+        }
+    }
+
+    // Convolves columns [fromColumn, toColumn) of in into out, walking row by row so memory is read sequentially
+    private void verticalPass(int[] in, int[] out, int width, int height, int fromColumn, int toColumn, ChannelAccumulator acc) {
+        int[] weights = kernelWeights;
+        int r = radius;
+        int columns = toColumn - fromColumn;
+        for (int y = 0; y < height; y++) {
+            int rowStart = y * width + fromColumn;
+            if (y < r || y >= height - r) {
+                System.arraycopy(in, rowStart, out, rowStart, columns);
+                continue;
+            }
+            accumulateRows(in, (y - r) * width + fromColumn, weights, width, columns, acc);
+            packRow(acc, out, rowStart, columns);
+        }
+    }
+
+    // Per-channel sums: acc.a[i] = sum over taps k of weights[k] * alpha of in[start + k * tapStride + i], etc.
+    // The kernel is symmetric, so mirrored taps are added first (two channels per int, 9 bits each fit
+    // without carrying into the next lane) and multiplied once.
+    private static void accumulateRows(int[] in, int start, int[] weights, int tapStride, int count, ChannelAccumulator acc) {
+        int[] a = acc.a, r = acc.r, g = acc.g, b = acc.b;
+        int center = weights.length / 2;
+        int w = weights[center];
+        int offset = start + center * tapStride;
+        for (int i = 0; i < count; i++) {
+            int pixel = in[offset + i];
+            a[i] = (pixel >>> 24) * w + WEIGHT_HALF;
+            r[i] = ((pixel >>> 16) & 0xFF) * w + WEIGHT_HALF;
+            g[i] = ((pixel >>> 8) & 0xFF) * w + WEIGHT_HALF;
+            b[i] = (pixel & 0xFF) * w + WEIGHT_HALF;
+        }
+        for (int k = 0; k < center; k++) {
+            w = weights[k];
+            int near = start + k * tapStride;
+            int far = start + (weights.length - 1 - k) * tapStride;
+            for (int i = 0; i < count; i++) {
+                int p = in[near + i];
+                int q = in[far + i];
+                int rb = (p & 0xFF00FF) + (q & 0xFF00FF);
+                int ag = ((p >>> 8) & 0xFF00FF) + ((q >>> 8) & 0xFF00FF);
+                a[i] += (ag >>> 16) * w;
+                r[i] += (rb >>> 16) * w;
+                g[i] += (ag & 0x1FF) * w;
+                b[i] += (rb & 0x1FF) * w;
+            }
+        }
+    }
+
+    private static void packRow(ChannelAccumulator acc, int[] out, int start, int count) {
+        int[] a = acc.a, r = acc.r, g = acc.g, b = acc.b;
+        for (int i = 0; i < count; i++) {
+            out[start + i] = pack(a[i], r[i], g[i], b[i]);
+        }
+    }
+
+    // Box blur of rows [fromRow, toRow) with a sliding window sum. Pixels outside the image repeat the edge pixel.
+    private static void horizontalBoxPass(int[] in, int[] out, int width, int fromRow, int toRow, int boxRadius) {
+        int size = 2 * boxRadius + 1;
+        int scale = WEIGHT_ONE / size; // Divide by size with a multiply and shift
+        int last = width - 1;
+        for (int y = fromRow; y < toRow; y++) {
+            int rowStart = y * width;
+            int a = 0, r = 0, g = 0, b = 0;
+            for (int i = -boxRadius; i <= boxRadius; i++) {
+                int pixel = in[rowStart + Math.max(0, Math.min(last, i))];
+                a += pixel >>> 24;
+                r += (pixel >>> 16) & 0xFF;
+                g += (pixel >>> 8) & 0xFF;
+                b += pixel & 0xFF;
+            }
+            for (int x = 0; x < width; x++) {
+                out[rowStart + x] = pack(a * scale + WEIGHT_HALF, r * scale + WEIGHT_HALF,
+                        g * scale + WEIGHT_HALF, b * scale + WEIGHT_HALF);
+                int entering = in[rowStart + Math.min(last, x + boxRadius + 1)];
+                int leaving = in[rowStart + Math.max(0, x - boxRadius)];
+                a += (entering >>> 24) - (leaving >>> 24);
+                r += ((entering >>> 16) & 0xFF) - ((leaving >>> 16) & 0xFF);
+                g += ((entering >>> 8) & 0xFF) - ((leaving >>> 8) & 0xFF);
+                b += (entering & 0xFF) - (leaving & 0xFF);
+            }
+        }
+    }
+
+    // Box blur of columns [fromColumn, toColumn), keeping one running sum per column and sliding it down row by row
+    private static void verticalBoxPass(int[] in, int[] out, int width, int height, int fromColumn, int toColumn,
+                                        int boxRadius, ChannelAccumulator acc) {
+        int size = 2 * boxRadius + 1;
+        int scale = WEIGHT_ONE / size;
+        int last = height - 1;
+        int columns = toColumn - fromColumn;
+        int[] a = acc.a, r = acc.r, g = acc.g, b = acc.b;
+        Arrays.fill(a, 0, columns, 0);
+        Arrays.fill(r, 0, columns, 0);
+        Arrays.fill(g, 0, columns, 0);
+        Arrays.fill(b, 0, columns, 0);
+        for (int j = -boxRadius; j <= boxRadius; j++) {
+            int rowStart = Math.max(0, Math.min(last, j)) * width + fromColumn;
+            for (int i = 0; i < columns; i++) {
+                int pixel = in[rowStart + i];
+                a[i] += pixel >>> 24;
+                r[i] += (pixel >>> 16) & 0xFF;
+                g[i] += (pixel >>> 8) & 0xFF;
+                b[i] += pixel & 0xFF;
+            }
+        }
+        for (int y = 0; y < height; y++) {
+            int dstStart = y * width + fromColumn;
+            for (int i = 0; i < columns; i++) {
+                out[dstStart + i] = pack(a[i] * scale + WEIGHT_HALF, r[i] * scale + WEIGHT_HALF,
+                        g[i] * scale + WEIGHT_HALF, b[i] * scale + WEIGHT_HALF);
+            }
+            int entering = Math.min(last, y + boxRadius + 1) * width + fromColumn;
+            int leaving = Math.max(0, y - boxRadius) * width + fromColumn;
+            for (int i = 0; i < columns; i++) {
+                int p = in[entering + i];
+                int q = in[leaving + i];
+                a[i] += (p >>> 24) - (q >>> 24);
+                r[i] += ((p >>> 16) & 0xFF) - ((q >>> 16) & 0xFF);
+                g[i] += ((p >>> 8) & 0xFF) - ((q >>> 8) & 0xFF);
+                b[i] += (p & 0xFF) - (q & 0xFF);
+            }
+        }
+    }
+
+    // Length of the bands [0, length) is split into
+    private int bandSize(int length, int minimum) {
+        if (!parallel) {
+            return minimum * 4;
+        }
+        return Math.max(minimum, length / (pool.getParallelism() * 4));
+    }
+
+    // Runs task over [0, length) split into bands, one after another or on the pool. accumulatorLength is
+    // the size of the per band ChannelAccumulator, 0 when the task does not need one.
+    // Throws CancellationException when the calling thread gets interrupted, dst is left untouched then.
+    private void forEachBand(int length, int band, int accumulatorLength, BandTask task) {
+        Thread caller = Thread.currentThread();
+        if (!parallel) {
+            for (int from = 0; from < length; from += band) {
+                checkInterrupted(caller);
+                task.run(from, Math.min(length, from + band), accumulatorLength > 0 ? rowAccumulator : null);
+            }
+        } else {
+            checkInterrupted(caller);
+            pool.invoke(new BandAction(task, 0, length, band, accumulatorLength, caller));
+        }
+    }
+
+    private static void checkInterrupted(Thread caller) {
+        if (caller.isInterrupted()) {
+            throw new CancellationException("Blur interrupted");
+        }
+    }
+
+    private static int pack(int a, int r, int g, int b) {
+        return ((a >>> WEIGHT_SHIFT) << 24) | ((r >>> WEIGHT_SHIFT) << 16) | ((g >>> WEIGHT_SHIFT) << 8) | (b >>> WEIGHT_SHIFT);
+    }
+
+    // Returns true when the pixels read are already premultiplied
+    private static boolean readPixels(BufferedImage src, int[] dst) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+        switch (src.getType()) {
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_INT_ARGB_PRE:
+                // Bulk copy of the raw ints, does not un-manage the source image
+                src.getRaster().getDataElements(0, 0, width, height, dst);
+                return src.getType() == BufferedImage.TYPE_INT_ARGB_PRE;
+            case BufferedImage.TYPE_INT_RGB:
+                src.getRaster().getDataElements(0, 0, width, height, dst);
+                int count = width * height;
+                for (int i = 0; i < count; i++) {
+                    dst[i] |= 0xFF000000;
+                }
+                return true;
+            default:
+                src.getRGB(0, 0, width, height, dst, 0, width);
+                return false;
+        }
+    }
+
+    // Un-premultiplies pixels into dst, writing straight into its DataBufferInt when the layout allows it
+    private void writePixels(BufferedImage dst, int[] pixels) {
+        int width = dst.getWidth();
+        int height = dst.getHeight();
+        int count = width * height;
+        int[] target = backingArray(dst);
+        if (target != null && dst.getType() == BufferedImage.TYPE_INT_ARGB_PRE) {
+            System.arraycopy(pixels, 0, target, 0, count);
+            return;
+        }
+        forEachBand(count, bandSize(count, MIN_PIXEL_BAND), 0,
+                (from, to, acc) -> unpremultiply(pixels, from, to));
+        if (target != null && dst.getType() == BufferedImage.TYPE_INT_ARGB) {
+            System.arraycopy(pixels, 0, target, 0, count);
+        } else {
+            dst.setRGB(0, 0, width, height, pixels, 0, width);
+        }
+    }
+
+    static int[] backingArray(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+        if (!(raster.getDataBuffer() instanceof DataBufferInt)
+                || !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)
+                || raster.getParent() != null
+                || ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride() != image.getWidth()) {
+            return null;
+        }
+        DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+        return buffer.getOffset() == 0 ? buffer.getData() : null;
+    }
+
+    private static void premultiply(int[] pixels, int from, int to) {
+        for (int i = from; i < to; i++) {
+            int pixel = pixels[i];
+            int a = pixel >>> 24;
+            if (a == 255) {
+                continue;
+            }
+            if (a == 0) {
+                pixels[i] = 0;
+                continue;
+            }
+            int r = ((pixel >> 16) & 0xFF) * a + 127;
+            int g = ((pixel >> 8) & 0xFF) * a + 127;
+            int b = (pixel & 0xFF) * a + 127;
+            pixels[i] = (a << 24) | ((r / 255) << 16) | ((g / 255) << 8) | (b / 255);
+        }
+    }
+
+    private static void unpremultiply(int[] pixels, int from, int to) {
+        for (int i = from; i < to; i++) {
+            int pixel = pixels[i];
+            int a = pixel >>> 24;
+            if (a == 255) {
+                continue;
+            }
+            if (a == 0) {
+                pixels[i] = 0;
+                continue;
+            }
+            int half = a >> 1;
+            int r = Math.min(255, (((pixel >> 16) & 0xFF) * 255 + half) / a);
+            int g = Math.min(255, (((pixel >> 8) & 0xFF) * 255 + half) / a);
+            int b = Math.min(255, ((pixel & 0xFF) * 255 + half) / a);
+            pixels[i] = (a << 24) | (r << 16) | (g << 8) | b;
+        }
+    }
+
+    private static int[] toFixedPoint(float[] kernel) {
+        int[] weights = new int[kernel.length];
+        int total = 0;
+        for (int i = 0; i < kernel.length; i++) {
+            // Mirror the left half so the weights are exactly symmetric
+            weights[i] = i <= kernel.length / 2 ? Math.round(kernel[i] * WEIGHT_ONE) : weights[kernel.length - 1 - i];
+            total += weights[i];
+        }
+        // Put the rounding error on the center tap so the kernel sums up to exactly one
+        weights[kernel.length / 2] += WEIGHT_ONE - total;
+        return weights;
+    }
+
+    // Box widths whose repeated application has the variance of a gaussian with the given sigma
+    // (W. Jarosz, "Fast Image Convolutions"); returned as radii of odd sized boxes
+    private static int[] createBoxRadii(double sigma, int passes) {
+        double idealWidth = Math.sqrt(12 * sigma * sigma / passes + 1);
+        int lower = (int) Math.floor(idealWidth);
+        if (lower % 2 == 0) {
+            lower--;
+        }
+        int upper = lower + 2;
+        double idealLowerCount = (12 * sigma * sigma - passes * lower * lower - 4 * passes * lower - 3 * passes)
+                / (-4.0 * lower - 4);
+        int lowerCount = (int) Math.round(idealLowerCount);
+
+        int[] radii = new int[passes];
+        for (int i = 0; i < passes; i++) {
+            radii[i] = ((i < lowerCount ? lower : upper) - 1) / 2;
+        }
+        return radii;
+    }
+
     private float[] create1DGaussianKernel() {
         int size = 2 * radius + 1;
         float[] kernel = new float[size];
@@ -58,4 +500,56 @@ class GaussianFilter {
 
         return kernel;
     }
+
+    private interface BandTask {
+        void run(int from, int to, ChannelAccumulator acc);
+    }
+
+    // Halves [from, to) until it is no longer than band, each leaf gets its own accumulator
+    private static final class BandAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final BandTask task;
+        private final int from;
+        private final int to;
+        private final int band;
+        private final int accumulatorLength;
+        private final Thread caller; // Bands run on pool threads, so cancellation is read from the caller
+
+        BandAction(BandTask task, int from, int to, int band, int accumulatorLength, Thread caller) {
+            this.task = task;
+            this.from = from;
+            this.to = to;
+            this.band = band;
+            this.accumulatorLength = accumulatorLength;
+            this.caller = caller;
+        }
+
+        @Override
+        protected void compute() {
+            checkInterrupted(caller);
+            if (to - from <= band) {
+                task.run(from, to, accumulatorLength > 0 ? new ChannelAccumulator(accumulatorLength) : null);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new BandAction(task, from, middle, band, accumulatorLength, caller),
+                    new BandAction(task, middle, to, band, accumulatorLength, caller));
+        }
+    }
+
+    // One row of 16.16 fixed point sums per channel
+    private static final class ChannelAccumulator {
+        final int[] a;
+        final int[] r;
+        final int[] g;
+        final int[] b;
+
+        ChannelAccumulator(int length) {
+            a = new int[length];
+            r = new int[length];
+            g = new int[length];
+            b = new int[length];
+        }
+    }
 }
@@ -0,0 +1,365 @@
+package org.sstec.resourceserver;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Animated GIF of AnimationFrames: only the first frame is full size, the others hold the bounds of their layer
+// with unchanged pixels transparent and the previous frame left in place, so file size grows with the layer area
+// rather than with the frame count. All frames share one palette built from every frame's pixels, so each delta is
+// rendered twice: once to count its colors and again when it is written, only one is in memory at a time.
+final class GifExporter {
+    // Histogram cells and the palette lookup use 5 bits per channel
+    private static final int CELL_BITS = 5;
+    private static final int CELLS = 1 << (3 * CELL_BITS);
+    private static final int TRANSPARENT_INDEX = 255;
+
+    private GifExporter() {
+    }
+
+    // Writes first followed by one frame per layer, looping forever
+    public static void write(BufferedImage first, List<? extends AnimationFrames.Layer> layers, int delayMillis, File file)
+            throws IOException {
+        Rectangle imageBounds = new Rectangle(0, 0, first.getWidth(), first.getHeight());
+
+        // First pass, the palette sees the colors of every delta
+        List<Rectangle> deltaBounds = new ArrayList<>(layers.size());
+        int[] histogram = new int[CELLS];
+        long[] sums = new long[CELLS * 3];
+        addToHistogram(first, histogram, sums);
+        for (int i = 0; i < layers.size(); i++) {
+            Rectangle bounds = AnimationFrames.deltaBounds(first, layers.get(i));
+            addToHistogram(AnimationFrames.renderDelta(first, layers, i, bounds), histogram, sums);
+            deltaBounds.add(bounds);
+        }
+        IndexColorModel palette = buildPalette(histogram, sums);
+        int[] cellColors = new int[CELLS];
+        for (int cell = 0; cell < CELLS; cell++) {
+            if (histogram[cell] > 0) {
+                cellColors[cell] = averageColor(sums, cell, histogram[cell]);
+            }
+        }
+        byte[] lookup = new byte[CELLS];
+        Arrays.fill(lookup, (byte) -1); // Filled lazily, TRANSPARENT_INDEX is never a nearest color
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("gif").next();
+        ImageOutputStream output = ImageIO.createImageOutputStream(file);
+        try {
+            writer.setOutput(output);
+            ImageWriteParam writeParam = writer.getDefaultWriteParam();
+            ImageTypeSpecifier typeSpecifier = new ImageTypeSpecifier(palette, palette.createCompatibleSampleModel(1, 1));
+
+            writer.prepareWriteSequence(streamMetadata(writer, typeSpecifier, writeParam, palette, imageBounds));
+            writer.writeToSequence(new IIOImage(toIndexed(first, palette, cellColors, lookup), null,
+                    frameMetadata(writer, typeSpecifier, writeParam, imageBounds, delayMillis, true)), writeParam);
+            for (int i = 0; i < layers.size(); i++) {
+                // Second pass, rendered again rather than kept from the first
+                BufferedImage delta = AnimationFrames.renderDelta(first, layers, i, deltaBounds.get(i));
+                BufferedImage frame = toIndexed(delta, palette, cellColors, lookup);
+                writer.writeToSequence(new IIOImage(frame, null,
+                        frameMetadata(writer, typeSpecifier, writeParam, deltaBounds.get(i), delayMillis, false)), writeParam);
+            }
+            writer.endWriteSequence();
+        } finally {
+            writer.dispose();
+            output.close();
+        }
+    }
+
+    private static int cell(int rgb) {
+        return ((rgb >> 9) & 0x7C00) | ((rgb >> 6) & 0x3E0) | ((rgb >> 3) & 0x1F);
+    }
+
+    private static void addToHistogram(BufferedImage image, int[] histogram, long[] sums) {
+        int width = image.getWidth();
+        int[] row = new int[width];
+        for (int y = 0; y < image.getHeight(); y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int rgb : row) {
+                if ((rgb >>> 24) == 0) {
+                    continue; // Transparent in a delta, nothing to show
+                }
+                int cell = cell(rgb);
+                histogram[cell]++;
+                sums[cell * 3] += (rgb >> 16) & 0xFF;
+                sums[cell * 3 + 1] += (rgb >> 8) & 0xFF;
+                sums[cell * 3 + 2] += rgb & 0xFF;
+            }
+        }
+    }
+
+    // Median cut over the occupied cells: the box with the largest pixel count times channel range is split at
+    // the pixel median of its widest channel until there are 255 boxes, each box becomes the average color of
+    // its pixels. Weighing in the range keeps small areas of distinct colors, such as borders, from being merged.
+    private static IndexColorModel buildPalette(int[] histogram, long[] sums) {
+        int occupied = 0;
+        for (int count : histogram) {
+            if (count > 0) {
+                occupied++;
+            }
+        }
+        int[] cells = new int[occupied];
+        for (int cell = 0, i = 0; cell < CELLS; cell++) {
+            if (histogram[cell] > 0) {
+                cells[i++] = cell;
+            }
+        }
+
+        List<int[]> boxes = new ArrayList<>(); // Each box is {from, to} into cells
+        boxes.add(new int[]{0, occupied});
+        while (boxes.size() < TRANSPARENT_INDEX) {
+            int[] largest = null;
+            long largestCount = 0;
+            long largestPriority = 0;
+            for (int[] box : boxes) {
+                if (box[1] - box[0] < 2) {
+                    continue;
+                }
+                long count = 0;
+                for (int i = box[0]; i < box[1]; i++) {
+                    count += histogram[cells[i]];
+                }
+                long priority = count * (channelRange(cells, box[0], box[1], widestChannelShift(cells, box[0], box[1])) + 1);
+                if (priority > largestPriority) {
+                    largest = box;
+                    largestCount = count;
+                    largestPriority = priority;
+                }
+            }
+            if (largest == null) {
+                break; // Every box is a single cell
+            }
+
+            int shift = widestChannelShift(cells, largest[0], largest[1]);
+            sortByChannel(cells, largest[0], largest[1], shift);
+            long half = largestCount / 2;
+            long seen = 0;
+            int split = largest[0] + 1;
+            for (int i = largest[0]; i < largest[1] - 1; i++) {
+                seen += histogram[cells[i]];
+                split = i + 1;
+                if (seen >= half) {
+                    break;
+                }
+            }
+            boxes.add(new int[]{split, largest[1]});
+            largest[1] = split;
+        }
+
+        byte[] reds = new byte[256];
+        byte[] greens = new byte[256];
+        byte[] blues = new byte[256];
+        for (int b = 0; b < boxes.size(); b++) {
+            int[] box = boxes.get(b);
+            long count = 0;
+            long red = 0;
+            long green = 0;
+            long blue = 0;
+            for (int i = box[0]; i < box[1]; i++) {
+                int cell = cells[i];
+                count += histogram[cell];
+                red += sums[cell * 3];
+                green += sums[cell * 3 + 1];
+                blue += sums[cell * 3 + 2];
+            }
+            if (count > 0) {
+                reds[b] = (byte) (red / count);
+                greens[b] = (byte) (green / count);
+                blues[b] = (byte) (blue / count);
+            }
+        }
+        // Unused entries stay black, nothing maps to them
+        return new IndexColorModel(8, 256, reds, greens, blues, TRANSPARENT_INDEX);
+    }
+
+    // 10, 5 or 0, the shift of the 5 bit channel with the largest range in cells[from, to)
+    private static int widestChannelShift(int[] cells, int from, int to) {
+        int bestShift = 0;
+        int bestRange = -1;
+        for (int shift = 0; shift <= 10; shift += CELL_BITS) {
+            int range = channelRange(cells, from, to, shift);
+            if (range > bestRange) {
+                bestRange = range;
+                bestShift = shift;
+            }
+        }
+        return bestShift;
+    }
+
+    private static int channelRange(int[] cells, int from, int to, int shift) {
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int i = from; i < to; i++) {
+            int value = (cells[i] >> shift) & 0x1F;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        return max - min;
+    }
+
+    // Counting sort of cells[from, to) on one 5 bit channel
+    private static void sortByChannel(int[] cells, int from, int to, int shift) {
+        int[] starts = new int[33];
+        for (int i = from; i < to; i++) {
+            starts[((cells[i] >> shift) & 0x1F) + 1]++;
+        }
+        for (int i = 1; i < starts.length; i++) {
+            starts[i] += starts[i - 1];
+        }
+        int[] sorted = new int[to - from];
+        for (int i = from; i < to; i++) {
+            sorted[starts[(cells[i] >> shift) & 0x1F]++] = cells[i];
+        }
+        System.arraycopy(sorted, 0, cells, from, sorted.length);
+    }
+
+    private static BufferedImage toIndexed(BufferedImage image, IndexColorModel palette, int[] cellColors, byte[] lookup) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage indexed = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, palette);
+        int[] row = new int[width];
+        byte[] indices = new byte[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                int rgb = row[x];
+                if ((rgb >>> 24) == 0) {
+                    indices[x] = (byte) TRANSPARENT_INDEX;
+                    continue;
+                }
+                int cell = cell(rgb);
+                if (lookup[cell] == -1) {
+                    lookup[cell] = (byte) nearest(palette, cellColors[cell]);
+                }
+                indices[x] = lookup[cell];
+            }
+            indexed.getRaster().setDataElements(0, y, width, 1, indices);
+        }
+        return indexed;
+    }
+
+    private static int averageColor(long[] sums, int cell, long count) {
+        int red = (int) (sums[cell * 3] / count);
+        int green = (int) (sums[cell * 3 + 1] / count);
+        int blue = (int) (sums[cell * 3 + 2] / count);
+        return (red << 16) | (green << 8) | blue;
+    }
+
+    // Palette entry closest to rgb, lookup uses -1 for unfilled so entry 255 is never returned
+    private static int nearest(IndexColorModel palette, int rgb) {
+        int red = (rgb >> 16) & 0xFF;
+        int green = (rgb >> 8) & 0xFF;
+        int blue = rgb & 0xFF;
+        int best = 0;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < TRANSPARENT_INDEX; i++) {
+            int dr = palette.getRed(i) - red;
+            int dg = palette.getGreen(i) - green;
+            int db = palette.getBlue(i) - blue;
+            int distance = dr * dr + dg * dg + db * db;
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static IIOMetadata streamMetadata(ImageWriter writer, ImageTypeSpecifier typeSpecifier,
+                                              ImageWriteParam writeParam, IndexColorModel palette,
+                                              Rectangle imageBounds) throws IOException {
+        IIOMetadata metadata = writer.getDefaultStreamMetadata(writeParam);
+        String formatName = metadata.getNativeMetadataFormatName();
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(formatName);
+
+        IIOMetadataNode screen = child(root, "LogicalScreenDescriptor");
+        screen.setAttribute("logicalScreenWidth", String.valueOf(imageBounds.width));
+        screen.setAttribute("logicalScreenHeight", String.valueOf(imageBounds.height));
+        screen.setAttribute("colorResolution", "8");
+        screen.setAttribute("pixelAspectRatio", "0");
+
+        IIOMetadataNode colorTable = child(root, "GlobalColorTable");
+        colorTable.setAttribute("sizeOfGlobalColorTable", "256");
+        colorTable.setAttribute("sortFlag", "FALSE");
+        colorTable.setAttribute("backgroundColorIndex", "0");
+        while (colorTable.getFirstChild() != null) {
+            colorTable.removeChild(colorTable.getFirstChild());
+        }
+        for (int i = 0; i < palette.getMapSize(); i++) {
+            IIOMetadataNode entry = new IIOMetadataNode("ColorTableEntry");
+            entry.setAttribute("index", String.valueOf(i));
+            entry.setAttribute("red", String.valueOf(palette.getRed(i)));
+            entry.setAttribute("green", String.valueOf(palette.getGreen(i)));
+            entry.setAttribute("blue", String.valueOf(palette.getBlue(i)));
+            colorTable.appendChild(entry);
+        }
+
+        metadata.setFromTree(formatName, root);
+        return metadata;
+    }
+
+    private static IIOMetadata frameMetadata(ImageWriter writer, ImageTypeSpecifier typeSpecifier,
+                                             ImageWriteParam writeParam, Rectangle bounds, int delayMillis,
+                                             boolean first) throws IOException {
+        IIOMetadata metadata = writer.getDefaultImageMetadata(typeSpecifier, writeParam);
+        String formatName = metadata.getNativeMetadataFormatName();
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(formatName);
+
+        IIOMetadataNode descriptor = child(root, "ImageDescriptor");
+        descriptor.setAttribute("imageLeftPosition", String.valueOf(bounds.x));
+        descriptor.setAttribute("imageTopPosition", String.valueOf(bounds.y));
+        descriptor.setAttribute("imageWidth", String.valueOf(bounds.width));
+        descriptor.setAttribute("imageHeight", String.valueOf(bounds.height));
+        descriptor.setAttribute("interlaceFlag", "FALSE");
+
+        // Every frame stays under the next one, the deltas only cover what changed
+        IIOMetadataNode graphicsControl = child(root, "GraphicControlExtension");
+        graphicsControl.setAttribute("disposalMethod", "doNotDispose");
+        graphicsControl.setAttribute("userInputFlag", "FALSE");
+        graphicsControl.setAttribute("transparentColorFlag", first ? "FALSE" : "TRUE");
+        graphicsControl.setAttribute("transparentColorIndex", String.valueOf(TRANSPARENT_INDEX));
+        graphicsControl.setAttribute("delayTime", String.valueOf(delayMillis / 10));
+
+        // The shared palette is the global color table
+        IIOMetadataNode localColorTable = child(root, "LocalColorTable");
+        root.removeChild(localColorTable);
+
+        if (first) {
+            // Loop forever
+            IIOMetadataNode appExtensions = child(root, "ApplicationExtensions");
+            IIOMetadataNode loop = new IIOMetadataNode("ApplicationExtension");
+            loop.setAttribute("applicationID", "NETSCAPE");
+            loop.setAttribute("authenticationCode", "2.0");
+            loop.setUserObject(new byte[]{0x1, 0x0, 0x0});
+            appExtensions.appendChild(loop);
+        }
+
+        metadata.setFromTree(formatName, root);
+        return metadata;
+    }
+
+    // The child named name, added when the tree does not have it yet
+    private static IIOMetadataNode child(IIOMetadataNode root, String name) {
+        for (int i = 0; i < root.getLength(); i++) {
+            if (root.item(i).getNodeName().equals(name)) {
+                return (IIOMetadataNode) root.item(i);
+            }
+        }
+        IIOMetadataNode node = new IIOMetadataNode(name);
+        root.appendChild(node);
+        return node;
+    }
+}
@@ -0,0 +1,206 @@
+package org.sstec.resourceserver;
+
+import org.apache.batik.transcoder.TranscoderException;
+import org.apache.batik.transcoder.TranscoderInput;
+import org.apache.batik.transcoder.TranscoderOutput;
+import org.apache.batik.transcoder.image.ImageTranscoder;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+// The SVG icons from /icons rendered at the sizes the UI asks for. Renders are kept in memory and as raw
+// ARGB files in the user cache directory, keyed by icon name, size and a hash of the SVG, so from the second
+// launch on Batik is not needed at all and an edited SVG is simply rendered again.
+class IconCache {
+    // Override with -Dscreenshoots.iconCacheDir=<dir>
+    static final IconCache DEFAULT = new IconCache(defaultDirectory());
+
+    // Bump when the file layout or the rendering changes, old files are then ignored
+    private static final int FORMAT_VERSION = 1;
+
+    private final File directory;
+    private final Map<String, CompletableFuture<BufferedImage>> icons = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newFixedThreadPool(
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors())), runnable -> {
+                Thread thread = new Thread(runnable, "icon-loader");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    IconCache(File directory) {
+        this.directory = directory;
+    }
+
+    // Starts loading the icons in parallel, the result completes once all of them are in
+    public CompletableFuture<Void> preload(int width, int height, String... names) {
+        CompletableFuture<?>[] loads = new CompletableFuture<?>[names.length];
+        for (int i = 0; i < names.length; i++) {
+            loads[i] = load(names[i], width, height);
+        }
+        return CompletableFuture.allOf(loads);
+    }
+
+    // Completes on a loader thread, with null when the icon does not exist or cannot be rendered, the error is
+    // logged once
+    public CompletableFuture<BufferedImage> load(String name, int width, int height) {
+        return icons.computeIfAbsent(name + "@" + width + "x" + height,
+                key -> CompletableFuture.supplyAsync(() -> loadIcon(name, width, height), executor)
+                        .exceptionally(e -> {
+                            // Whatever loadIcon did not expect, e.g. Batik missing from the classpath. Callers
+                            // only handle null, an exceptional future would skip their thenAccept silently.
+                            System.err.println("Error loading icon " + name + ": " + e);
+                            e.printStackTrace();
+                            return null;
+                        }));
+    }
+
+    private BufferedImage loadIcon(String name, int width, int height) {
+        byte[] svg;
+        try (InputStream svgStream = getClass().getResourceAsStream("/icons/" + name + ".svg")) {
+            if (svgStream == null) {
+                System.err.println("Could not find " + name + ".svg in resources");
+                return null;
+            }
+            svg = readAll(svgStream);
+        } catch (IOException e) {
+            System.err.println("Error reading icon " + name + ": " + e.getMessage());
+            e.printStackTrace();
+            return null;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(svg);
+        File cacheFile = new File(directory, String.format("%s-%dx%d-%08x-v%d.argb",
+                name, width, height, crc.getValue(), FORMAT_VERSION));
+
+        if (cacheFile.isFile()) {
+            try {
+                return readImage(cacheFile);
+            } catch (IOException e) {
+                System.err.println("Ignoring unreadable icon cache file " + cacheFile + ": " + e.getMessage());
+            }
+        }
+
+        BufferedImage icon;
+        try {
+            icon = SvgRenderer.render(svg, width, height);
+        } catch (Exception e) { // Batik also throws unchecked exceptions for SVGs it cannot render
+            System.err.println("Error loading icon " + name + ": " + e.getMessage());
+            e.printStackTrace();
+            return null;
+        }
+        try {
+            writeImage(icon, cacheFile);
+        } catch (IOException e) {
+            // Still usable, it just gets rendered again next time
+            System.err.println("Could not write icon cache file " + cacheFile + ": " + e.getMessage());
+        }
+        return icon;
+    }
+
+    // Width and height followed by the ARGB pixels, all big endian ints
+    private static BufferedImage readImage(File file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        int width = buffer.remaining() >= 8 ? buffer.getInt() : 0;
+        int height = buffer.remaining() >= 4 ? buffer.getInt() : 0;
+        if (width <= 0 || height <= 0 || buffer.remaining() != 4L * width * height) {
+            throw new IOException("Unexpected size");
+        }
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = new int[width * height];
+        buffer.asIntBuffer().get(pixels);
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+        return image;
+    }
+
+    // Through a temporary file, another instance of the app may be reading the same icon
+    private static void writeImage(BufferedImage image, File file) throws IOException {
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+        File temp = File.createTempFile(file.getName(), ".tmp", parent);
+        try {
+            int width = image.getWidth();
+            int height = image.getHeight();
+            ByteBuffer buffer = ByteBuffer.allocate(8 + 4 * width * height);
+            buffer.putInt(width).putInt(height);
+            buffer.asIntBuffer().put(image.getRGB(0, 0, width, height, null, 0, width));
+            Files.write(temp.toPath(), buffer.array());
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    // The platform's cache directory: ~/Library/Caches on macOS, %LOCALAPPDATA% on Windows, XDG elsewhere
+    private static File defaultDirectory() {
+        String configured = System.getProperty("screenshoots.iconCacheDir");
+        if (configured != null) {
+            return new File(configured);
+        }
+        String home = System.getProperty("user.home");
+        String os = System.getProperty("os.name", "").toLowerCase();
+        File base;
+        if (os.contains("mac")) {
+            base = new File(home, "Library/Caches");
+        } else if (os.contains("win") && System.getenv("LOCALAPPDATA") != null) {
+            base = new File(System.getenv("LOCALAPPDATA"));
+        } else if (System.getenv("XDG_CACHE_HOME") != null) {
+            base = new File(System.getenv("XDG_CACHE_HOME"));
+        } else {
+            base = new File(home, ".cache");
+        }
+        return new File(new File(base, "screenshoots"), "icons");
+    }
+
+    // Batik straight into a BufferedImage, without going through PNG bytes. A class of its own so the Batik
+    // classes are only loaded once an icon actually has to be rendered.
+    private static final class SvgRenderer {
+        static BufferedImage render(byte[] svg, int width, int height) throws IOException {
+            BufferedImage[] result = new BufferedImage[1];
+            ImageTranscoder transcoder = new ImageTranscoder() {
+                @Override
+                public BufferedImage createImage(int w, int h) {
+                    return new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+                }
+
+                @Override
+                public void writeImage(BufferedImage image, TranscoderOutput output) {
+                    result[0] = image;
+                }
+            };
+            transcoder.addTranscodingHint(ImageTranscoder.KEY_WIDTH, (float) width);
+            transcoder.addTranscodingHint(ImageTranscoder.KEY_HEIGHT, (float) height);
+            try {
+                transcoder.transcode(new TranscoderInput(new ByteArrayInputStream(svg)), new TranscoderOutput());
+            } catch (TranscoderException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            return result[0];
+        }
+    }
+}
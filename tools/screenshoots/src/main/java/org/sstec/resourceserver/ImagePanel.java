@@ -5,25 +5,22 @@ import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionAdapter;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.RoundRectangle2D;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.List;
-import java.util.function.Consumer;
-import java.io.InputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import javax.imageio.ImageIO;
-import org.apache.batik.transcoder.TranscoderInput;
-import org.apache.batik.transcoder.TranscoderOutput;
-import org.apache.batik.transcoder.image.PNGTranscoder;
 import java.util.Map;
-import java.util.HashMap;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 
 class ImagePanel extends JPanel {
     private BufferedImage originalImageRef; // For coordinate mapping
     private BufferedImage processedImageToDisplay; // This image has selections & borders baked in
-    private List<SelectionShape> shapes = new ArrayList<>();
+    private final ShapeStore shapes = new ShapeStore();
+    private List<Rectangle> selectionBounds = new ArrayList<>(); // The app's list, shapes mirrors it
     private Rectangle currentDrawingRectPreview; // For live drawing feedback (blue rect)
     private Rectangle selectedRectangle; // For the currently selected rectangle
     private Point dragStartPoint;
@@ -41,11 +38,11 @@ class ImagePanel extends JPanel {
     public static final double PILL_SIZE_RATIO_XLARGE = 0.40; // 40% of rectangle size
     public static final int MIN_PILL_SIZE = 20; // Minimum size
     public static final int MAX_PILL_SIZE = 60; // Maximum size
-    private final float[] SELECTION_DASH = {5.0f, 5.0f}; // Dashed border pattern
-    private String currentShape = "Rounded Rectangle";
-    private String currentBorderStyle = "Dashed";
-    private String currentBorderColor = "Red";
-    private String currentPillStyle = "Modern";
+    private static final float[] SELECTION_DASH = {5.0f, 5.0f}; // Dashed border pattern
+    private ShapeStore.ShapeType currentShape = ShapeStore.ShapeType.ROUNDED_RECTANGLE;
+    private ShapeStore.BorderStyle currentBorderStyle = ShapeStore.BorderStyle.DASHED;
+    private ShapeStore.BorderColor currentBorderColor = ShapeStore.BorderColor.RED;
+    private ShapeStore.PillStyle currentPillStyle = ShapeStore.PillStyle.MODERN;
     private final int ROUNDED_RECT_ARC = 20;
     private final int DIAMOND_POINTS = 4;
     private final int STAR_POINTS = 5;
@@ -56,17 +53,48 @@ class ImagePanel extends JPanel {
     private int draggedShapeIndex = -1;
     private Point dragOffset;
     private BufferedImage placeholderImage;
+    private boolean painted; // Reported to StartupProfiler once
 
     private static final int PILL_POSITION_COUNT = 8;
-    private Map<Integer, Integer> pillPositions = new HashMap<>();
-    private Map<Integer, String> selectionShapes = new HashMap<>();
-    private Map<Integer, String> selectionBorderStyles = new HashMap<>();
-    private Map<Integer, String> selectionBorderColors = new HashMap<>();
-    private Map<Integer, String> selectionPillStyles = new HashMap<>();
-    private int selectedShapeIndex = -1;
+    private int selectedShapeId = ShapeStore.NO_ID; // Follows the shape when shapes before it go away
     private Consumer<SelectionShape> shapeSelectedListener;
-    private Map<Integer, Double> pillSizes = new HashMap<>(); // Store custom pill sizes
-    private Point currentMousePoint = null;
+    private final Point currentMousePoint = new Point();
+    private final SelectionIndex selectionIndex = new SelectionIndex(); // Kept in step with shapes
+
+    // Strokes, colours, fonts and geometry are made once and reused, painting allocates nothing of its own.
+    // What is left per frame is inside Java2D, mostly a PathIterator for every shape drawn.
+    private static final Color GUIDE_LINE_COLOR = new Color(100, 100, 100, 100);
+    private static final Stroke GUIDE_LINE_STROKE = new BasicStroke(1);
+    private static final Color PILL_COLOR = new Color(255, 59, 48);
+    private static final Color PILL_CLASSIC_BOTTOM = new Color(255, 59, 48, 200);
+    private static final Color PILL_CLASSIC_HIGHLIGHT = new Color(255, 255, 255, 50);
+    private static final Color PILL_MINIMAL_FILL = new Color(255, 59, 48, 180);
+    private static final Stroke PILL_THIN_STROKE = new BasicStroke(1.0f);
+    private static final Stroke PILL_THICK_STROKE = new BasicStroke(2.0f);
+    private static final Map<ShapeStore.BorderStyle, Stroke> BORDER_STROKES = borderStrokes();
+    private static final Map<ShapeStore.BorderColor, Color> BORDER_COLORS = borderColors();
+    private final Rectangle paintBounds = new Rectangle();
+    private final int[] polygonX = new int[Math.max(STAR_POINTS * 2, OCTAGON_POINTS)];
+    private final int[] polygonY = new int[Math.max(STAR_POINTS * 2, OCTAGON_POINTS)];
+    // Java2D turns fillRoundRect, drawOval, fillPolygon... into a new shape per call when antialiasing
+    private final RoundRectangle2D.Float roundRect = new RoundRectangle2D.Float();
+    private final Ellipse2D.Float ellipse = new Ellipse2D.Float();
+    private final Path2D.Float polygonPath = new Path2D.Float(Path2D.WIND_EVEN_ODD, Math.max(STAR_POINTS * 2, OCTAGON_POINTS) + 1);
+    // Classic pills pre-rendered by height and width, filling with a GradientPaint makes a new paint context
+    // every time. Rendered at the scale of the screen the panel is on.
+    private final BufferedImage[][] classicPillSprites = new BufferedImage[MAX_PILL_SIZE + 1][];
+    private GraphicsConfiguration deviceConfiguration;
+    private double deviceScale = 1;
+
+    // Background, guide lines, image, shapes and pills as last drawn, at the screen's scale. Redrawn only after
+    // they change, a frame in between just copies it and draws the selection being dragged on top.
+    private BufferedImage annotationLayer;
+    private Graphics2D annotationLayerGraphics;
+    private boolean annotationLayerValid;
+    private final Font[] pillFonts = new Font[MAX_PILL_SIZE + 1]; // By font size
+    private final FontMetrics[] pillFontMetrics = new FontMetrics[MAX_PILL_SIZE + 1];
+    private String pillFontName; // Family the pill fonts were derived from
+    private String[] pillNumbers = new String[0];
 
     public ImagePanel() {
         loadPlaceholderImage();
@@ -77,44 +105,41 @@ class ImagePanel extends JPanel {
                 
                 Point imagePoint = panelToImageCoordinates(e.getPoint());
                 
-                // Check if clicking on a pill
-                for (int i = shapes.size() - 1; i >= 0; i--) {
-                    SelectionShape shape = shapes.get(i);
-                    int currentPosition = pillPositions.getOrDefault(i, 0);
-                    if (isPointInPill(e.getPoint(), shape.getBounds(), i, currentPosition)) {
-                        // If right click, cycle pill size
-                        if (SwingUtilities.isRightMouseButton(e)) {
-                            double currentSize = pillSizes.getOrDefault(i, PILL_SIZE_RATIO);
-                            double newSize;
-                            if (currentSize == PILL_SIZE_RATIO) {
-                                newSize = PILL_SIZE_RATIO_SMALL;
-                            } else if (currentSize == PILL_SIZE_RATIO_SMALL) {
-                                newSize = PILL_SIZE_RATIO_MEDIUM;
-                            } else if (currentSize == PILL_SIZE_RATIO_MEDIUM) {
-                                newSize = PILL_SIZE_RATIO_LARGE;
-                            } else if (currentSize == PILL_SIZE_RATIO_LARGE) {
-                                newSize = PILL_SIZE_RATIO_XLARGE;
-                            } else {
-                                newSize = PILL_SIZE_RATIO;
-                            }
-                            pillSizes.put(i, newSize);
+                // Check if clicking on a pill, pills may lie outside the image so the point is not clamped
+                int i = selectionIndex.pillAt(unclampedImagePoint(e.getPoint()));
+                if (i >= 0) {
+                    int currentPosition = shapes.pillPosition(i);
+                    // If right click, cycle pill size
+                    if (SwingUtilities.isRightMouseButton(e)) {
+                        double currentSize = shapes.pillSize(i);
+                        double newSize;
+                        if (currentSize == PILL_SIZE_RATIO) {
+                            newSize = PILL_SIZE_RATIO_SMALL;
+                        } else if (currentSize == PILL_SIZE_RATIO_SMALL) {
+                            newSize = PILL_SIZE_RATIO_MEDIUM;
+                        } else if (currentSize == PILL_SIZE_RATIO_MEDIUM) {
+                            newSize = PILL_SIZE_RATIO_LARGE;
+                        } else if (currentSize == PILL_SIZE_RATIO_LARGE) {
+                            newSize = PILL_SIZE_RATIO_XLARGE;
                         } else {
-                            // Left click cycles position
-                            int newPosition = (currentPosition + 1) % PILL_POSITION_COUNT;
-                            pillPositions.put(i, newPosition);
+                            newSize = PILL_SIZE_RATIO;
                         }
-                        repaint();
-                        return;
+                        shapes.setPillSize(i, newSize);
+                    } else {
+                        // Left click cycles position
+                        int newPosition = (currentPosition + 1) % PILL_POSITION_COUNT;
+                        shapes.setPillPosition(i, newPosition);
                     }
+                    reindex(i);
+                    invalidateAnnotationLayer();
+                    return;
                 }
                 
                 // Check if clicking on an existing selection
-                for (int i = shapes.size() - 1; i >= 0; i--) {
-                    SelectionShape shape = shapes.get(i);
-                    if (shape.getBounds().contains(imagePoint)) {
-                        setSelectedShapeIndex(i);
-                        return;
-                    }
+                i = selectionIndex.shapeAt(imagePoint);
+                if (i >= 0) {
+                    setSelectedShapeIndex(i);
+                    return;
                 }
                 
                 // If no shape was clicked, deselect
@@ -170,44 +195,16 @@ class ImagePanel extends JPanel {
 
             @Override
             public void mouseMoved(MouseEvent e) {
-                currentMousePoint = e.getPoint();
-                repaint();
+                currentMousePoint.setLocation(e.getX(), e.getY());
             }
         });
     }
 
     private void loadPlaceholderImage() {
-        try {
-            // Load SVG from resources
-            InputStream svgStream = getClass().getResourceAsStream("/icons/placeholder.svg");
-            if (svgStream == null) {
-                System.err.println("Could not find placeholder.svg in resources");
-                return;
-            }
-
-            // Create a transcoder input
-            TranscoderInput input = new TranscoderInput(svgStream);
-
-            // Create a transcoder output
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            TranscoderOutput output = new TranscoderOutput(outputStream);
-
-            // Create a PNG transcoder
-            PNGTranscoder transcoder = new PNGTranscoder();
-            transcoder.addTranscodingHint(PNGTranscoder.KEY_WIDTH, 400f);
-            transcoder.addTranscodingHint(PNGTranscoder.KEY_HEIGHT, 400f);
-
-            // Transcode the SVG to PNG
-            transcoder.transcode(input, output);
-
-            // Convert the PNG data to a BufferedImage
-            byte[] pngData = outputStream.toByteArray();
-            placeholderImage = ImageIO.read(new ByteArrayInputStream(pngData));
-
-        } catch (Exception e) {
-            System.err.println("Error loading placeholder image: " + e.getMessage());
-            e.printStackTrace();
-        }
+        IconCache.DEFAULT.load("placeholder", 400, 400).thenAccept(image -> SwingUtilities.invokeLater(() -> {
+            placeholderImage = image;
+            repaint();
+        }));
     }
 
     public void setRectangleDrawnListener(Consumer<Rectangle> listener) {
@@ -223,43 +220,33 @@ class ImagePanel extends JPanel {
 
     public void setProcessedImageToDisplay(BufferedImage image) {
         this.processedImageToDisplay = image;
-        repaint(); // Repaint when the main processed image changes
+        invalidateAnnotationLayer(); // The image is part of the annotation layer
     }
 
+    // newSelections stays the app's list of selections, the panel moves and removes its rectangles in place
+    // when a shape is dragged or deleted so both keep the same shapes at the same indices
     public void setSelectionsForDrawingFeedback(List<Rectangle> newSelections) {
-        // Create new shapes list
-        List<SelectionShape> newShapes = new ArrayList<>();
-        
-        // Copy existing shapes
+        this.selectionBounds = newSelections;
+        if (shapes.size() > newSelections.size()) {
+            shapes.truncate(newSelections.size());
+        }
+        while (selectionIndex.size() > shapes.size()) {
+            selectionIndex.remove(selectionIndex.size() - 1);
+        }
+
         for (int i = 0; i < newSelections.size(); i++) {
+            Rectangle bounds = newSelections.get(i);
             if (i < shapes.size()) {
                 // Keep existing shape but update bounds
-                SelectionShape existingShape = shapes.get(i);
-                existingShape.setBounds(newSelections.get(i));
-                newShapes.add(existingShape);
+                shapes.setBounds(i, bounds);
+                reindex(i);
             } else {
                 // Create new shape with current styles
-                SelectionShape newShape = new SelectionShape(
-                    newSelections.get(i),
-                    currentShape,
-                    currentBorderStyle,
-                    currentBorderColor,
-                    currentPillStyle,
-                    0
-                );
-                newShapes.add(newShape);
-                
-                // Initialize pill position and style for the new shape
-                pillPositions.put(i, 0);
-                selectionShapes.put(i, currentShape);
-                selectionBorderStyles.put(i, currentBorderStyle);
-                selectionBorderColors.put(i, currentBorderColor);
-                selectionPillStyles.put(i, currentPillStyle);
+                shapes.add(bounds, currentShape, currentBorderStyle, currentBorderColor, currentPillStyle);
+                selectionIndex.add(bounds, pillBounds(bounds, i));
             }
         }
-        
-        this.shapes = newShapes;
-        repaint();
+        invalidateAnnotationLayer();
     }
 
     public void setSelectedRectangle(Rectangle rect) {
@@ -268,48 +255,47 @@ class ImagePanel extends JPanel {
     }
 
     public void setCurrentShape(String shape) {
-        this.currentShape = shape;
-        if (selectedShapeIndex >= 0 && selectedShapeIndex < shapes.size()) {
-            shapes.get(selectedShapeIndex).setShape(shape);
-            selectionShapes.put(selectedShapeIndex, shape);
+        this.currentShape = ShapeStore.ShapeType.of(shape);
+        int selected = getSelectedShapeIndex();
+        if (selected >= 0) {
+            shapes.setShapeType(selected, currentShape);
         }
-        repaint();
+        invalidateAnnotationLayer();
     }
 
     public void setBorderStyle(String style) {
-        this.currentBorderStyle = style;
-        if (selectedShapeIndex >= 0 && selectedShapeIndex < shapes.size()) {
-            shapes.get(selectedShapeIndex).setBorderStyle(style);
-            selectionBorderStyles.put(selectedShapeIndex, style);
+        this.currentBorderStyle = ShapeStore.BorderStyle.of(style);
+        int selected = getSelectedShapeIndex();
+        if (selected >= 0) {
+            shapes.setBorderStyle(selected, currentBorderStyle);
         }
-        repaint();
+        invalidateAnnotationLayer();
     }
 
     public void setBorderColor(String color) {
-        this.currentBorderColor = color;
-        if (selectedShapeIndex >= 0 && selectedShapeIndex < shapes.size()) {
-            shapes.get(selectedShapeIndex).setBorderColor(color);
-            selectionBorderColors.put(selectedShapeIndex, color);
+        this.currentBorderColor = ShapeStore.BorderColor.of(color);
+        int selected = getSelectedShapeIndex();
+        if (selected >= 0) {
+            shapes.setBorderColor(selected, currentBorderColor);
         }
-        repaint();
+        invalidateAnnotationLayer();
     }
 
     public void setPillStyle(String style) {
-        this.currentPillStyle = style;
-        if (selectedShapeIndex >= 0 && selectedShapeIndex < shapes.size()) {
-            shapes.get(selectedShapeIndex).setPillStyle(style);
-            selectionPillStyles.put(selectedShapeIndex, style);
+        this.currentPillStyle = ShapeStore.PillStyle.of(style);
+        int selected = getSelectedShapeIndex();
+        if (selected >= 0) {
+            shapes.setPillStyle(selected, currentPillStyle);
         }
-        repaint();
+        invalidateAnnotationLayer();
     }
 
     public void setDraggedSelection(int index, Point startPoint) {
         if (index >= 0 && index < shapes.size()) {
             draggedShapeIndex = index;
-            SelectionShape shape = shapes.get(index);
             dragOffset = new Point(
-                startPoint.x - shape.getBounds().x,
-                startPoint.y - shape.getBounds().y
+                startPoint.x - shapes.x(index),
+                startPoint.y - shapes.y(index)
             );
         }
     }
@@ -325,20 +311,21 @@ class ImagePanel extends JPanel {
 
     public void updateDraggedSelection(Point currentPoint) {
         if (draggedShapeIndex != -1 && dragOffset != null) {
-            SelectionShape shape = shapes.get(draggedShapeIndex);
-            Rectangle rect = shape.getBounds();
             int newX = currentPoint.x - dragOffset.x;
             int newY = currentPoint.y - dragOffset.y;
             
             // Keep the rectangle within image bounds
             if (originalImageRef != null) {
-                newX = Math.max(0, Math.min(newX, originalImageRef.getWidth() - rect.width));
-                newY = Math.max(0, Math.min(newY, originalImageRef.getHeight() - rect.height));
+                newX = Math.max(0, Math.min(newX, originalImageRef.getWidth() - shapes.width(draggedShapeIndex)));
+                newY = Math.max(0, Math.min(newY, originalImageRef.getHeight() - shapes.height(draggedShapeIndex)));
             }
             
-            rect.setLocation(newX, newY);
-            shape.setBounds(rect);
-            repaint();
+            shapes.setLocation(draggedShapeIndex, newX, newY);
+            if (draggedShapeIndex < selectionBounds.size()) {
+                selectionBounds.get(draggedShapeIndex).setLocation(newX, newY);
+            }
+            reindex(draggedShapeIndex);
+            invalidateAnnotationLayer();
         }
     }
 
@@ -368,77 +355,41 @@ class ImagePanel extends JPanel {
 
     @Override
     protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
-        Graphics2D g2d = (Graphics2D) g.create();
+        if (getGraphicsConfiguration() != deviceConfiguration) {
+            deviceConfiguration = getGraphicsConfiguration();
+            deviceScale = deviceConfiguration == null ? 1 : deviceConfiguration.getDefaultTransform().getScaleX();
+            Arrays.fill(classicPillSprites, null);
+            annotationLayerValid = false;
+        }
+        if (processedImageToDisplay != null) {
+            // The layer covers the whole panel including its background
+            g.drawImage(annotationLayer(), 0, 0, getWidth(), getHeight(), null);
+        } else {
+            super.paintComponent(g);
+        }
 
-        // Enable anti-aliasing and high-quality rendering
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-        g2d.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+        // Drawn straight into g, whose state is put back at the end, g.create() would be a new object per frame
+        Graphics2D g2d = (Graphics2D) g;
+        Object originalAntialiasing = g2d.getRenderingHint(RenderingHints.KEY_ANTIALIASING);
+        Object originalRendering = g2d.getRenderingHint(RenderingHints.KEY_RENDERING);
+        Object originalStrokeControl = g2d.getRenderingHint(RenderingHints.KEY_STROKE_CONTROL);
+        Paint originalPaint = g2d.getPaint();
+        Stroke originalStroke = g2d.getStroke();
+        setRenderingHints(g2d);
         
         // Get panel size
         int panelWidth = getWidth();
         int panelHeight = getHeight();
 
         if (processedImageToDisplay != null) {
-            // Calculate image position to center it
-            int imageX = (panelWidth - processedImageToDisplay.getWidth()) / 2;
-            int imageY = (panelHeight - processedImageToDisplay.getHeight()) / 2;
-
-            // Draw guide lines
-            g2d.setColor(new Color(100, 100, 100, 100));
-            g2d.setStroke(new BasicStroke(1));
-            
-            // Vertical guide lines
-            g2d.drawLine(imageX, 0, imageX, panelHeight);
-            g2d.drawLine(imageX + processedImageToDisplay.getWidth(), 0, 
-                        imageX + processedImageToDisplay.getWidth(), panelHeight);
-            
-            // Horizontal guide lines
-            g2d.drawLine(0, imageY, panelWidth, imageY);
-            g2d.drawLine(0, imageY + processedImageToDisplay.getHeight(), 
-                        panelWidth, imageY + processedImageToDisplay.getHeight());
-
-            // Draw the main image at original size
-            g2d.drawImage(processedImageToDisplay, imageX, imageY, null);
-
-            // Draw all shapes
-            for (int i = 0; i < shapes.size(); i++) {
-                SelectionShape shape = shapes.get(i);
-                Rectangle rect = shape.getBounds();
-                Rectangle panelRect = new Rectangle(
-                    rect.x + imageX,
-                    rect.y + imageY,
-                    rect.width,
-                    rect.height
-                );
-                drawShape(g2d, new SelectionShape(
-                    panelRect,
-                    shape.getShape(),
-                    shape.getBorderStyle(),
-                    shape.getBorderColor(),
-                    shape.getPillStyle(),
-                    pillPositions.getOrDefault(i, 0)
-                ), false, i);
-            }
+            int imageX = imageOffsetX();
+            int imageY = imageOffsetY();
 
             // Draw preview if exists
             if (currentDrawingRectPreview != null) {
-                Rectangle previewRect = new Rectangle(
-                    currentDrawingRectPreview.x + imageX,
-                    currentDrawingRectPreview.y + imageY,
-                    currentDrawingRectPreview.width,
-                    currentDrawingRectPreview.height
-                );
-                SelectionShape previewShape = new SelectionShape(
-                    previewRect,
-                    currentShape,
-                    currentBorderStyle,
-                    currentBorderColor,
-                    currentPillStyle,
-                    0
-                );
-                drawShape(g2d, previewShape, true, -1);
+                paintBounds.setBounds(currentDrawingRectPreview);
+                paintBounds.translate(imageX, imageY);
+                drawShape(g2d, paintBounds, currentShape, currentBorderStyle, currentBorderColor, true, -1);
             }
 
         } else if (placeholderImage != null) {
@@ -457,78 +408,141 @@ class ImagePanel extends JPanel {
             int y = (panelHeight - fm.getHeight()) / 2 + fm.getAscent();
             g2d.drawString(text, x, y);
         }
-        g2d.dispose();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, originalAntialiasing);
+        g2d.setRenderingHint(RenderingHints.KEY_RENDERING, originalRendering);
+        g2d.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, originalStrokeControl);
+        g2d.setPaint(originalPaint);
+        g2d.setStroke(originalStroke);
+
+        if (!painted) {
+            painted = true;
+            StartupProfiler.painted();
+        }
     }
 
-    private void drawShape(Graphics2D g2d, SelectionShape shape, boolean isPreview, int shapeIndex) {
+    // Enable anti-aliasing and high-quality rendering
+    private static void setRenderingHints(Graphics2D g2d) {
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g2d.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+    }
+
+    // Everything but the drawing preview has to be drawn again, on the next paint
+    private void invalidateAnnotationLayer() {
+        annotationLayerValid = false;
+        repaint();
+    }
+
+    private BufferedImage annotationLayer() {
+        int panelWidth = getWidth();
+        int panelHeight = getHeight();
+        int layerWidth = Math.max(1, (int) Math.ceil(panelWidth * deviceScale));
+        int layerHeight = Math.max(1, (int) Math.ceil(panelHeight * deviceScale));
+        if (annotationLayer == null || annotationLayer.getWidth() != layerWidth || annotationLayer.getHeight() != layerHeight) {
+            if (annotationLayerGraphics != null) {
+                annotationLayerGraphics.dispose();
+            }
+            annotationLayer = deviceConfiguration == null
+                    ? new BufferedImage(layerWidth, layerHeight, BufferedImage.TYPE_INT_RGB)
+                    : deviceConfiguration.createCompatibleImage(layerWidth, layerHeight, Transparency.OPAQUE);
+            annotationLayerGraphics = annotationLayer.createGraphics();
+            annotationLayerGraphics.scale(deviceScale, deviceScale);
+            setRenderingHints(annotationLayerGraphics);
+            annotationLayerValid = false;
+        }
+        if (annotationLayerValid) {
+            return annotationLayer;
+        }
+
+        Graphics2D g2d = annotationLayerGraphics;
+        g2d.setColor(getBackground());
+        g2d.fillRect(0, 0, panelWidth, panelHeight);
+
+        // Calculate image position to center it
+        int imageX = imageOffsetX();
+        int imageY = imageOffsetY();
+
+        // Draw guide lines
+        g2d.setColor(GUIDE_LINE_COLOR);
+        g2d.setStroke(GUIDE_LINE_STROKE);
+        
+        // Vertical guide lines
+        g2d.drawLine(imageX, 0, imageX, panelHeight);
+        g2d.drawLine(imageX + processedImageToDisplay.getWidth(), 0, 
+                    imageX + processedImageToDisplay.getWidth(), panelHeight);
+        
+        // Horizontal guide lines
+        g2d.drawLine(0, imageY, panelWidth, imageY);
+        g2d.drawLine(0, imageY + processedImageToDisplay.getHeight(), 
+                    panelWidth, imageY + processedImageToDisplay.getHeight());
+
+        // Draw the main image at original size
+        g2d.drawImage(processedImageToDisplay, imageX, imageY, null);
+
+        // Draw all shapes
+        for (int i = 0; i < shapes.size(); i++) {
+            shapes.bounds(i, paintBounds).translate(imageX, imageY);
+            drawShape(g2d, paintBounds, shapes.shapeType(i), shapes.borderStyle(i), shapes.borderColor(i), false, i);
+        }
+
+        annotationLayerValid = true;
+        return annotationLayer;
+    }
+
+    // Where the processed image is drawn, centered in the panel
+    private int imageOffsetX() {
+        return (getWidth() - processedImageToDisplay.getWidth()) / 2;
+    }
+
+    private int imageOffsetY() {
+        return (getHeight() - processedImageToDisplay.getHeight()) / 2;
+    }
+
+    private void drawShape(Graphics2D g2d, Rectangle rect, ShapeStore.ShapeType shapeType,
+                           ShapeStore.BorderStyle borderStyle, ShapeStore.BorderColor borderColor,
+                           boolean isPreview, int shapeIndex) {
         Stroke originalStroke = g2d.getStroke();
         Color originalColor = g2d.getColor();
         
-        Rectangle rect = shape.getBounds();
-        String shapeType = isPreview ? currentShape : shape.getShape();
-        String borderStyle = isPreview ? currentBorderStyle : shape.getBorderStyle();
-        String borderColor = isPreview ? currentBorderColor : shape.getBorderColor();
-        
         // Draw shadow
         g2d.setColor(SELECTION_SHADOW_COLOR);
         g2d.fillRect(rect.x + SHADOW_OFFSET, rect.y + SHADOW_OFFSET, 
                     rect.width, rect.height);
         
         // Set border style
-        switch (borderStyle) {
-            case "Dotted":
-                g2d.setStroke(new BasicStroke(2.5f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND, 
-                    10.0f, new float[]{2.0f, 2.0f}, 0.0f));
-                break;
-            case "Double":
-                g2d.setStroke(new BasicStroke(2.5f));
-                break;
-            case "Groove":
-                g2d.setStroke(new BasicStroke(3.0f));
-                break;
-            case "Ridge":
-                g2d.setStroke(new BasicStroke(3.0f));
-                break;
-            default: // Solid or Dashed
-                if (borderStyle.equals("Dashed")) {
-                    g2d.setStroke(new BasicStroke(2.5f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 
-                        10.0f, SELECTION_DASH, 0.0f));
-                } else {
-                    g2d.setStroke(new BasicStroke(2.5f));
-                }
-        }
+        g2d.setStroke(BORDER_STROKES.get(borderStyle));
         
         // Set border color
-        g2d.setColor(getColorFromName(borderColor));
+        g2d.setColor(BORDER_COLORS.get(borderColor));
         
         // Draw the shape
         switch (shapeType) {
-            case "Ellipse":
-                g2d.drawOval(rect.x, rect.y, rect.width, rect.height);
+            case ELLIPSE:
+                drawOval(g2d, rect.x, rect.y, rect.width, rect.height);
                 break;
-            case "Diamond":
+            case DIAMOND:
                 drawDiamond(g2d, rect, false);
                 break;
-            case "Star":
+            case STAR:
                 drawStar(g2d, rect, false);
                 break;
-            case "Hexagon":
+            case HEXAGON:
                 drawPolygon(g2d, rect, HEXAGON_POINTS, false);
                 break;
-            case "Octagon":
+            case OCTAGON:
                 drawPolygon(g2d, rect, OCTAGON_POINTS, false);
                 break;
-            case "Rounded Rectangle":
-                g2d.drawRoundRect(rect.x, rect.y, rect.width, rect.height, 
+            case ROUNDED_RECTANGLE:
+                drawRoundRect(g2d, rect.x, rect.y, rect.width, rect.height, 
                                 ROUNDED_RECT_ARC, ROUNDED_RECT_ARC);
                 break;
             default: // Rectangle
-                g2d.drawRect(rect.x, rect.y, rect.width, rect.height);
+                g2d.draw(rect); // drawRect would wrap the same bounds in a new Rectangle
         }
         
         // Draw pill if not preview
         if (!isPreview) {
-            drawPill(g2d, rect, shapeIndex, pillPositions.getOrDefault(shapeIndex, 0), shape.getPillStyle());
+            drawPill(g2d, rect, shapeIndex, shapes.pillPosition(shapeIndex), shapes.pillStyle(shapeIndex));
         }
         
         // Restore original stroke and color
@@ -552,9 +566,9 @@ class ImagePanel extends JPanel {
         // Implementation of drawBorderEffects method
     }
 
-    private void drawPill(Graphics2D g2d, Rectangle rect, int index, int position, String pillStyle) {
+    private void drawPill(Graphics2D g2d, Rectangle rect, int index, int position, ShapeStore.PillStyle pillStyle) {
         // Calculate pill size based on rectangle size and custom size if set
-        double sizeRatio = pillSizes.getOrDefault(index, PILL_SIZE_RATIO);
+        double sizeRatio = shapes.pillSize(index);
         int pillWidth = (int)(rect.width * sizeRatio);
         int pillHeight = (int)(rect.height * sizeRatio);
         
@@ -563,14 +577,14 @@ class ImagePanel extends JPanel {
         pillHeight = Math.max(MIN_PILL_SIZE, Math.min(MAX_PILL_SIZE, pillHeight));
         
         // Draw numbered pill
-        String number = String.valueOf(index + 1);
+        String number = pillNumber(index);
         
         // Set font size proportional to pill size
         Font originalFont = g2d.getFont();
         int fontSize = (int) (Math.min(pillWidth, pillHeight) * 0.6);
-        g2d.setFont(new Font(originalFont.getName(), Font.BOLD, fontSize));
+        g2d.setFont(pillFont(g2d, fontSize));
         
-        FontMetrics fm = g2d.getFontMetrics();
+        FontMetrics fm = pillFontMetrics[fontSize];
         int textWidth = fm.stringWidth(number);
         
         // Ensure pill is wide enough for the text
@@ -623,62 +637,56 @@ class ImagePanel extends JPanel {
         
         // Draw pill based on style
         switch (pillStyle) {
-            case "Classic":
+            case CLASSIC:
                 // Draw classic pill with gradient
-                GradientPaint gradient = new GradientPaint(
-                    pillX, pillY, new Color(255, 59, 48),
-                    pillX, pillY + pillHeight, new Color(255, 59, 48, 200)
-                );
-                g2d.setPaint(gradient);
-                g2d.fillRoundRect(pillX, pillY, pillWidth, pillHeight, 
-                                pillHeight / 2, pillHeight / 2);
-                g2d.setColor(new Color(255, 255, 255, 50));
-                g2d.drawRoundRect(pillX, pillY, pillWidth, pillHeight, 
+                g2d.drawImage(classicPillSprite(pillWidth, pillHeight), pillX, pillY, pillWidth, pillHeight, null);
+                g2d.setColor(PILL_CLASSIC_HIGHLIGHT);
+                drawRoundRect(g2d, pillX, pillY, pillWidth, pillHeight, 
                                 pillHeight / 2, pillHeight / 2);
                 break;
             
-            case "Minimal":
+            case MINIMAL:
                 // Draw minimal pill with thin border
-                g2d.setColor(new Color(255, 59, 48, 180));
-                g2d.fillRoundRect(pillX, pillY, pillWidth, pillHeight, 
+                g2d.setColor(PILL_MINIMAL_FILL);
+                fillRoundRect(g2d, pillX, pillY, pillWidth, pillHeight, 
                                 pillHeight / 2, pillHeight / 2);
-                g2d.setColor(new Color(255, 59, 48));
-                g2d.setStroke(new BasicStroke(1.0f));
-                g2d.drawRoundRect(pillX, pillY, pillWidth, pillHeight, 
+                g2d.setColor(PILL_COLOR);
+                g2d.setStroke(PILL_THIN_STROKE);
+                drawRoundRect(g2d, pillX, pillY, pillWidth, pillHeight, 
                                 pillHeight / 2, pillHeight / 2);
                 break;
             
-            case "Bold":
+            case BOLD:
                 // Draw bold pill with thick border
-                g2d.setColor(new Color(255, 59, 48));
-                g2d.fillRoundRect(pillX, pillY, pillWidth, pillHeight, 
+                g2d.setColor(PILL_COLOR);
+                fillRoundRect(g2d, pillX, pillY, pillWidth, pillHeight, 
                                 pillHeight / 2, pillHeight / 2);
                 g2d.setColor(Color.WHITE);
-                g2d.setStroke(new BasicStroke(2.0f));
-                g2d.drawRoundRect(pillX, pillY, pillWidth, pillHeight, 
+                g2d.setStroke(PILL_THICK_STROKE);
+                drawRoundRect(g2d, pillX, pillY, pillWidth, pillHeight, 
                                 pillHeight / 2, pillHeight / 2);
                 break;
             
-            case "Outline":
+            case OUTLINE:
                 // Draw outline pill with no fill
-                g2d.setColor(new Color(255, 59, 48));
-                g2d.setStroke(new BasicStroke(2.0f));
-                g2d.drawRoundRect(pillX, pillY, pillWidth, pillHeight, 
+                g2d.setColor(PILL_COLOR);
+                g2d.setStroke(PILL_THICK_STROKE);
+                drawRoundRect(g2d, pillX, pillY, pillWidth, pillHeight, 
                                 pillHeight / 2, pillHeight / 2);
                 break;
             
             default: // Modern
                 // Draw modern pill with shadow
-                g2d.setColor(new Color(0, 0, 0, 40));
-                g2d.fillRoundRect(pillX + 2, pillY + 2, pillWidth, pillHeight, 
+                g2d.setColor(SELECTION_SHADOW_COLOR);
+                fillRoundRect(g2d, pillX + 2, pillY + 2, pillWidth, pillHeight, 
                                 pillHeight / 2, pillHeight / 2);
-                g2d.setColor(new Color(255, 59, 48, 230));
-                g2d.fillRoundRect(pillX, pillY, pillWidth, pillHeight, 
+                g2d.setColor(PILL_BACKGROUND);
+                fillRoundRect(g2d, pillX, pillY, pillWidth, pillHeight, 
                                 pillHeight / 2, pillHeight / 2);
         }
         
         // Draw pill text
-        g2d.setColor(Color.WHITE);
+        g2d.setColor(PILL_TEXT_COLOR);
         int textX = pillX + (pillWidth - textWidth) / 2;
         int textY = pillY + (pillHeight + fm.getAscent() - fm.getDescent()) / 2;
         g2d.drawString(number, textX, textY);
@@ -687,14 +695,64 @@ class ImagePanel extends JPanel {
         g2d.setFont(originalFont);
     }
 
-    private boolean isPointInPill(Point point, Rectangle rect, int index, int position) {
-        // Convert rectangle to panel coordinates
-        Rectangle panelRect = imageToPanelCoordinates(rect);
-        
+    // The pill label of shape index, "1" for the first
+    private String pillNumber(int index) {
+        if (index >= pillNumbers.length) {
+            String[] grown = Arrays.copyOf(pillNumbers, Math.max(index + 1, pillNumbers.length * 2));
+            for (int i = pillNumbers.length; i < grown.length; i++) {
+                grown[i] = String.valueOf(i + 1);
+            }
+            pillNumbers = grown;
+        }
+        return pillNumbers[index];
+    }
+
+    // Bold pill font of size in the family g2d currently uses, with its metrics in pillFontMetrics
+    private Font pillFont(Graphics2D g2d, int size) {
+        String family = g2d.getFont().getName();
+        if (!family.equals(pillFontName)) {
+            Arrays.fill(pillFonts, null);
+            Arrays.fill(pillFontMetrics, null);
+            pillFontName = family;
+        }
+        if (pillFonts[size] == null) {
+            pillFonts[size] = new Font(family, Font.BOLD, size);
+            pillFontMetrics[size] = g2d.getFontMetrics(pillFonts[size]);
+        }
+        return pillFonts[size];
+    }
+
+    // The gradient filled body of a classic pill of width and height
+    private BufferedImage classicPillSprite(int width, int height) {
+        BufferedImage[] sprites = classicPillSprites[height];
+        if (sprites == null || width >= sprites.length) {
+            sprites = sprites == null ? new BufferedImage[width + 1] : Arrays.copyOf(sprites, width + 1);
+            classicPillSprites[height] = sprites;
+        }
+        if (sprites[width] == null) {
+            BufferedImage sprite = new BufferedImage((int) Math.ceil(width * deviceScale),
+                    (int) Math.ceil(height * deviceScale), BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g2d = sprite.createGraphics();
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g2d.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+            g2d.scale(deviceScale, deviceScale);
+            g2d.setPaint(new GradientPaint(0, 0, PILL_COLOR, 0, height, PILL_CLASSIC_BOTTOM));
+            g2d.fillRoundRect(0, 0, width, height, height / 2, height / 2);
+            g2d.dispose();
+            sprites[width] = sprite;
+        }
+        return sprites[width];
+    }
+
+    // Where the pill of shape index is clickable, in the coordinates rect is in
+    private Rectangle pillBounds(Rectangle rect, int index) {
+        int position = shapes.pillPosition(index);
+
         // Calculate pill size
-        double sizeRatio = pillSizes.getOrDefault(index, PILL_SIZE_RATIO);
-        int pillWidth = (int)(panelRect.width * sizeRatio);
-        int pillHeight = (int)(panelRect.height * sizeRatio);
+        double sizeRatio = shapes.pillSize(index);
+        int pillWidth = (int)(rect.width * sizeRatio);
+        int pillHeight = (int)(rect.height * sizeRatio);
         
         // Apply min/max constraints
         pillWidth = Math.max(MIN_PILL_SIZE, Math.min(MAX_PILL_SIZE, pillWidth));
@@ -709,47 +767,60 @@ class ImagePanel extends JPanel {
         
         switch (position) {
             case 0: // Top right inside
-                pillX = panelRect.x + panelRect.width - pillWidth - padding;
-                pillY = panelRect.y + padding;
+                pillX = rect.x + rect.width - pillWidth - padding;
+                pillY = rect.y + padding;
                 break;
             case 1: // Top left inside
-                pillX = panelRect.x + padding;
-                pillY = panelRect.y + padding;
+                pillX = rect.x + padding;
+                pillY = rect.y + padding;
                 break;
             case 2: // Bottom left inside
-                pillX = panelRect.x + padding;
-                pillY = panelRect.y + panelRect.height - pillHeight - padding;
+                pillX = rect.x + padding;
+                pillY = rect.y + rect.height - pillHeight - padding;
                 break;
             case 3: // Bottom right inside
-                pillX = panelRect.x + panelRect.width - pillWidth - padding;
-                pillY = panelRect.y + panelRect.height - pillHeight - padding;
+                pillX = rect.x + rect.width - pillWidth - padding;
+                pillY = rect.y + rect.height - pillHeight - padding;
                 break;
             case 4: // Top right outside
-                pillX = panelRect.x + panelRect.width + padding;
-                pillY = panelRect.y - pillHeight - padding;
+                pillX = rect.x + rect.width + padding;
+                pillY = rect.y - pillHeight - padding;
                 break;
             case 5: // Top left outside
-                pillX = panelRect.x - pillWidth - padding;
-                pillY = panelRect.y - pillHeight - padding;
+                pillX = rect.x - pillWidth - padding;
+                pillY = rect.y - pillHeight - padding;
                 break;
             case 6: // Bottom left outside
-                pillX = panelRect.x - pillWidth - padding;
-                pillY = panelRect.y + panelRect.height + padding;
+                pillX = rect.x - pillWidth - padding;
+                pillY = rect.y + rect.height + padding;
                 break;
             case 7: // Bottom right outside
-                pillX = panelRect.x + panelRect.width + padding;
-                pillY = panelRect.y + panelRect.height + padding;
+                pillX = rect.x + rect.width + padding;
+                pillY = rect.y + rect.height + padding;
                 break;
             default:
-                pillX = panelRect.x + panelRect.width - pillWidth - padding;
-                pillY = panelRect.y + padding;
+                pillX = rect.x + rect.width - pillWidth - padding;
+                pillY = rect.y + padding;
         }
         
-        // Create pill rectangle
-        Rectangle pillRect = new Rectangle(pillX, pillY, pillWidth, pillHeight);
-        
-        // Check if point is inside pill
-        return pillRect.contains(point);
+        return new Rectangle(pillX, pillY, pillWidth, pillHeight);
+    }
+
+    // Brings the index entry of shape index in line with its bounds and pill
+    private void reindex(int index) {
+        Rectangle bounds = shapes.bounds(index, new Rectangle());
+        selectionIndex.update(index, bounds, pillBounds(bounds, index));
+    }
+
+    // Topmost shape containing imagePoint, or -1
+    public int shapeIndexAt(Point imagePoint) {
+        return selectionIndex.shapeAt(imagePoint);
+    }
+
+    private Point unclampedImagePoint(Point panelPoint) {
+        int imageX = (getWidth() - originalImageRef.getWidth()) / 2;
+        int imageY = (getHeight() - originalImageRef.getHeight()) / 2;
+        return new Point(panelPoint.x - imageX, panelPoint.y - imageY);
     }
 
     public Point panelToImageCoordinates(Point panelPoint) {
@@ -772,189 +843,92 @@ class ImagePanel extends JPanel {
         return new Point(adjustedX, adjustedY);
     }
 
-    private Rectangle imageToPanelCoordinates(Rectangle imageRect) {
-        if (originalImageRef == null || getWidth() == 0 || getHeight() == 0) {
-            return new Rectangle(0,0,0,0);
-        }
-        
-        // Calculate image position to center it
-        int imageX = (getWidth() - originalImageRef.getWidth()) / 2;
-        int imageY = (getHeight() - originalImageRef.getHeight()) / 2;
-        
-        // Adjust coordinates to account for centered image
-        return new Rectangle(
-            imageRect.x + imageX,
-            imageRect.y + imageY,
-            imageRect.width,
-            imageRect.height
-        );
-    }
-
-    // Add these methods to save and restore pill positions
-    public Map<Integer, Integer> getPillPositions() {
-        return new HashMap<>(pillPositions);
-    }
-
-    public void setPillPositions(Map<Integer, Integer> positions) {
-        this.pillPositions = new HashMap<>(positions);
-        repaint();
-    }
-
-    public Map<Integer, Double> getPillSizes() {
-        return new HashMap<>(pillSizes);
-    }
-
-    public void setPillSizes(Map<Integer, Double> sizes) {
-        this.pillSizes = new HashMap<>(sizes);
-        repaint();
+    public int getPillPositionForSelection(int index) {
+        return index < shapes.size() ? shapes.pillPosition(index) : 0;
     }
 
     public String getShapeForSelection(int index) {
-        return selectionShapes.getOrDefault(index, currentShape);
+        return (index < shapes.size() ? shapes.shapeType(index) : currentShape).label;
     }
 
     public String getBorderStyleForSelection(int index) {
-        return selectionBorderStyles.getOrDefault(index, currentBorderStyle);
+        return (index < shapes.size() ? shapes.borderStyle(index) : currentBorderStyle).label;
     }
 
     public String getBorderColorForSelection(int index) {
-        return selectionBorderColors.getOrDefault(index, currentBorderColor);
+        return (index < shapes.size() ? shapes.borderColor(index) : currentBorderColor).label;
     }
 
     public String getPillStyleForSelection(int index) {
-        return selectionPillStyles.getOrDefault(index, currentPillStyle);
+        return (index < shapes.size() ? shapes.pillStyle(index) : currentPillStyle).label;
     }
 
     public void deleteSelectedShape() {
-        if (selectedShapeIndex >= 0 && selectedShapeIndex < shapes.size()) {
-            shapes.remove(selectedShapeIndex);
-            selectionShapes.remove(selectedShapeIndex);
-            selectionBorderStyles.remove(selectedShapeIndex);
-            selectionBorderColors.remove(selectedShapeIndex);
-            selectionPillStyles.remove(selectedShapeIndex);
-            pillPositions.remove(selectedShapeIndex);
-            
-            // Update indices for remaining shapes
-            Map<Integer, String> newShapes = new HashMap<>();
-            Map<Integer, String> newBorderStyles = new HashMap<>();
-            Map<Integer, String> newBorderColors = new HashMap<>();
-            Map<Integer, String> newPillStyles = new HashMap<>();
-            Map<Integer, Integer> newPillPositions = new HashMap<>();
-            
-            for (int i = 0; i < shapes.size(); i++) {
-                if (i < selectedShapeIndex) {
-                    newShapes.put(i, selectionShapes.get(i));
-                    newBorderStyles.put(i, selectionBorderStyles.get(i));
-                    newBorderColors.put(i, selectionBorderColors.get(i));
-                    newPillStyles.put(i, selectionPillStyles.get(i));
-                    newPillPositions.put(i, pillPositions.get(i));
-                } else {
-                    newShapes.put(i, selectionShapes.get(i + 1));
-                    newBorderStyles.put(i, selectionBorderStyles.get(i + 1));
-                    newBorderColors.put(i, selectionBorderColors.get(i + 1));
-                    newPillStyles.put(i, selectionPillStyles.get(i + 1));
-                    newPillPositions.put(i, pillPositions.get(i + 1));
-                }
+        int selected = getSelectedShapeIndex();
+        if (selected >= 0) {
+            shapes.remove(selected);
+            selectionIndex.remove(selected);
+            if (selected < selectionBounds.size()) {
+                selectionBounds.remove(selected);
             }
             
-            selectionShapes = newShapes;
-            selectionBorderStyles = newBorderStyles;
-            selectionBorderColors = newBorderColors;
-            selectionPillStyles = newPillStyles;
-            pillPositions = newPillPositions;
-            
-            selectedShapeIndex = -1;
-            repaint();
+            selectedShapeId = ShapeStore.NO_ID;
+            invalidateAnnotationLayer();
         }
     }
 
-    // Add methods to get all properties for saving
-    public Map<Integer, String> getAllShapes() {
-        return new HashMap<>(selectionShapes);
-    }
-
-    public Map<Integer, String> getAllBorderStyles() {
-        return new HashMap<>(selectionBorderStyles);
-    }
-
-    public Map<Integer, String> getAllBorderColors() {
-        return new HashMap<>(selectionBorderColors);
-    }
-
-    public Map<Integer, String> getAllPillStyles() {
-        return new HashMap<>(selectionPillStyles);
-    }
-
-    public Map<Integer, Integer> getAllPillPositions() {
-        return new HashMap<>(pillPositions);
-    }
-
-    // Add methods to set all properties when loading
-    public void setAllShapes(Map<Integer, String> shapes) {
-        this.selectionShapes = new HashMap<>(shapes);
-    }
-
-    public void setAllBorderStyles(Map<Integer, String> styles) {
-        this.selectionBorderStyles = new HashMap<>(styles);
-    }
-
-    public void setAllBorderColors(Map<Integer, String> colors) {
-        this.selectionBorderColors = new HashMap<>(colors);
-    }
-
-    public void setAllPillStyles(Map<Integer, String> styles) {
-        this.selectionPillStyles = new HashMap<>(styles);
-    }
-
-    public void setAllPillPositions(Map<Integer, Integer> positions) {
-        this.pillPositions = new HashMap<>(positions);
+    public List<Rectangle> getSelections() {
+        List<Rectangle> selections = new ArrayList<>(shapes.size());
+        for (int i = 0; i < shapes.size(); i++) {
+            selections.add(shapes.bounds(i, new Rectangle()));
+        }
+        return selections;
     }
 
-    public List<Rectangle> getSelections() {
-        return shapes.stream()
-            .map(SelectionShape::getBounds)
-            .collect(Collectors.toList());
+    private static Map<ShapeStore.BorderStyle, Stroke> borderStrokes() {
+        Map<ShapeStore.BorderStyle, Stroke> strokes = new EnumMap<>(ShapeStore.BorderStyle.class);
+        strokes.put(ShapeStore.BorderStyle.SOLID, SELECTION_BORDER_STROKE);
+        strokes.put(ShapeStore.BorderStyle.DASHED, new BasicStroke(2.5f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER,
+            10.0f, SELECTION_DASH, 0.0f));
+        strokes.put(ShapeStore.BorderStyle.DOTTED, new BasicStroke(2.5f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND,
+            10.0f, new float[]{2.0f, 2.0f}, 0.0f));
+        strokes.put(ShapeStore.BorderStyle.DOUBLE, SELECTION_BORDER_STROKE);
+        strokes.put(ShapeStore.BorderStyle.GROOVE, new BasicStroke(3.0f));
+        strokes.put(ShapeStore.BorderStyle.RIDGE, new BasicStroke(3.0f));
+        return strokes;
     }
 
-    private Color getColorFromName(String colorName) {
-        switch (colorName) {
-            case "Blue":
-                return new Color(0, 122, 255);
-            case "Green":
-                return new Color(52, 199, 89);
-            case "Purple":
-                return new Color(175, 82, 222);
-            case "Orange":
-                return new Color(255, 149, 0);
-            case "Teal":
-                return new Color(90, 200, 250);
-            default: // Red
-                return new Color(255, 59, 48);
-        }
+    private static Map<ShapeStore.BorderColor, Color> borderColors() {
+        Map<ShapeStore.BorderColor, Color> colors = new EnumMap<>(ShapeStore.BorderColor.class);
+        colors.put(ShapeStore.BorderColor.RED, new Color(255, 59, 48));
+        colors.put(ShapeStore.BorderColor.BLUE, new Color(0, 122, 255));
+        colors.put(ShapeStore.BorderColor.GREEN, new Color(52, 199, 89));
+        colors.put(ShapeStore.BorderColor.PURPLE, new Color(175, 82, 222));
+        colors.put(ShapeStore.BorderColor.ORANGE, new Color(255, 149, 0));
+        colors.put(ShapeStore.BorderColor.TEAL, new Color(90, 200, 250));
+        return colors;
     }
 
     private void drawDiamond(Graphics2D g2d, Rectangle rect, boolean isShadow) {
-        int[] xPoints = {
-            rect.x + rect.width/2,
-            rect.x + rect.width,
-            rect.x + rect.width/2,
-            rect.x
-        };
-        int[] yPoints = {
-            rect.y,
-            rect.y + rect.height/2,
-            rect.y + rect.height,
-            rect.y + rect.height/2
-        };
+        int[] xPoints = polygonX;
+        int[] yPoints = polygonY;
+        xPoints[0] = rect.x + rect.width/2;
+        xPoints[1] = rect.x + rect.width;
+        xPoints[2] = rect.x + rect.width/2;
+        xPoints[3] = rect.x;
+        yPoints[0] = rect.y;
+        yPoints[1] = rect.y + rect.height/2;
+        yPoints[2] = rect.y + rect.height;
+        yPoints[3] = rect.y + rect.height/2;
         if (isShadow) {
-            for (int i = 0; i < xPoints.length; i++) {
+            for (int i = 0; i < DIAMOND_POINTS; i++) {
                 xPoints[i] += SHADOW_OFFSET;
                 yPoints[i] += SHADOW_OFFSET;
             }
         }
-        g2d.fillPolygon(xPoints, yPoints, DIAMOND_POINTS);
+        fillPolygon(g2d, xPoints, yPoints, DIAMOND_POINTS);
         if (!isShadow) {
-            g2d.drawPolygon(xPoints, yPoints, DIAMOND_POINTS);
+            drawPolygon(g2d, xPoints, yPoints, DIAMOND_POINTS);
         }
     }
 
@@ -969,8 +943,8 @@ class ImagePanel extends JPanel {
             centerY += SHADOW_OFFSET;
         }
 
-        int[] xPoints = new int[STAR_POINTS * 2];
-        int[] yPoints = new int[STAR_POINTS * 2];
+        int[] xPoints = polygonX;
+        int[] yPoints = polygonY;
 
         for (int i = 0; i < STAR_POINTS * 2; i++) {
             double angle = Math.PI * i / STAR_POINTS;
@@ -979,10 +953,43 @@ class ImagePanel extends JPanel {
             yPoints[i] = centerY - (int)(radius * Math.cos(angle));
         }
 
-        g2d.fillPolygon(xPoints, yPoints, STAR_POINTS * 2);
+        fillPolygon(g2d, xPoints, yPoints, STAR_POINTS * 2);
         if (!isShadow) {
-            g2d.drawPolygon(xPoints, yPoints, STAR_POINTS * 2);
+            drawPolygon(g2d, xPoints, yPoints, STAR_POINTS * 2);
+        }
+    }
+
+    private void fillRoundRect(Graphics2D g2d, int x, int y, int width, int height, int arcWidth, int arcHeight) {
+        roundRect.setRoundRect(x, y, width, height, arcWidth, arcHeight);
+        g2d.fill(roundRect);
+    }
+
+    private void drawRoundRect(Graphics2D g2d, int x, int y, int width, int height, int arcWidth, int arcHeight) {
+        roundRect.setRoundRect(x, y, width, height, arcWidth, arcHeight);
+        g2d.draw(roundRect);
+    }
+
+    private void drawOval(Graphics2D g2d, int x, int y, int width, int height) {
+        ellipse.setFrame(x, y, width, height);
+        g2d.draw(ellipse);
+    }
+
+    private void fillPolygon(Graphics2D g2d, int[] xPoints, int[] yPoints, int count) {
+        g2d.fill(polygonPath(xPoints, yPoints, count));
+    }
+
+    private void drawPolygon(Graphics2D g2d, int[] xPoints, int[] yPoints, int count) {
+        g2d.draw(polygonPath(xPoints, yPoints, count));
+    }
+
+    private Path2D polygonPath(int[] xPoints, int[] yPoints, int count) {
+        polygonPath.reset();
+        polygonPath.moveTo(xPoints[0], yPoints[0]);
+        for (int i = 1; i < count; i++) {
+            polygonPath.lineTo(xPoints[i], yPoints[i]);
         }
+        polygonPath.closePath();
+        return polygonPath;
     }
 
     private void drawPolygon(Graphics2D g2d, Rectangle rect, int sides, boolean isShadow) {
@@ -995,8 +1002,8 @@ class ImagePanel extends JPanel {
             centerY += SHADOW_OFFSET;
         }
 
-        int[] xPoints = new int[sides];
-        int[] yPoints = new int[sides];
+        int[] xPoints = polygonX;
+        int[] yPoints = polygonY;
 
         for (int i = 0; i < sides; i++) {
             double angle = 2 * Math.PI * i / sides;
@@ -1004,14 +1011,18 @@ class ImagePanel extends JPanel {
             yPoints[i] = centerY + (int)(radius * Math.sin(angle));
         }
 
-        g2d.fillPolygon(xPoints, yPoints, sides);
+        fillPolygon(g2d, xPoints, yPoints, sides);
         if (!isShadow) {
-            g2d.drawPolygon(xPoints, yPoints, sides);
+            drawPolygon(g2d, xPoints, yPoints, sides);
         }
     }
 
     public List<SelectionShape> getShapes() {
-        return new ArrayList<>(shapes);
+        List<SelectionShape> copies = new ArrayList<>(shapes.size());
+        for (int i = 0; i < shapes.size(); i++) {
+            copies.add(shapes.toSelectionShape(i));
+        }
+        return copies;
     }
 
     public void setShapeSelectedListener(Consumer<SelectionShape> listener) {
@@ -1019,10 +1030,16 @@ class ImagePanel extends JPanel {
     }
 
     public void setSelectedShapeIndex(int index) {
-        this.selectedShapeIndex = index;
-        if (index >= 0 && index < shapes.size() && shapeSelectedListener != null) {
-            shapeSelectedListener.accept(shapes.get(index));
+        boolean valid = index >= 0 && index < shapes.size();
+        this.selectedShapeId = valid ? shapes.id(index) : ShapeStore.NO_ID;
+        if (valid && shapeSelectedListener != null) {
+            shapeSelectedListener.accept(shapes.toSelectionShape(index));
         }
         repaint();
     }
+
+    // Index of the selected shape, or -1
+    public int getSelectedShapeIndex() {
+        return selectedShapeId == ShapeStore.NO_ID ? -1 : shapes.indexOf(selectedShapeId);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,44 @@
+package org.sstec.resourceserver;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Dimension;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+// Sizes of images and of the buffers working on them, so the app and BatchBlurCli can tell whether an image
+// fits in memory before decoding it.
+final class ImageSizes {
+    private ImageSizes() {
+    }
+
+    // Reads only the header for the dimensions, the image is not decoded
+    static Dimension read(File input) throws IOException {
+        ImageInputStream stream = ImageIO.createImageInputStream(input);
+        if (stream == null) {
+            throw new IOException("Could not open " + input);
+        }
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext()) {
+                throw new IOException("Not a readable image");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            stream.close();
+        }
+    }
+
+    // Bytes taken by that many int ARGB buffers of width x height
+    static long bufferBytes(int width, int height, int buffers) {
+        return (long) width * height * 4 * buffers;
+    }
+}
@@ -0,0 +1,365 @@
+package org.sstec.resourceserver;
+
+import java.awt.Rectangle;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+// Writes 8 bit RGB or RGBA PNGs. Unlike the ImageIO writer the deflate level, deflate strategy and row filter
+// can be picked, it reports progress and it stops when the writing thread is interrupted.
+// Rows are pulled from the image a band at a time, so a lazily computed image is never needed in full.
+class PngEncoder {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    static final int IDAT_CHUNK_BYTES = 1 << 16;
+    // Rows fetched from the image at once, bands stay around 1 MB of pixels
+    private static final int BAND_PIXELS = 1 << 18;
+
+    enum RowFilter { NONE, SUB, UP, AVERAGE, PAETH, ADAPTIVE }
+
+    // Presets offered when saving, trading file size against time
+    enum Compression {
+        FAST("Fast", 1, RowFilter.SUB),
+        BALANCED("Balanced", 4, RowFilter.ADAPTIVE),
+        SMALLEST("Smallest", 9, RowFilter.ADAPTIVE);
+
+        private final String label;
+        private final int level;
+        private final RowFilter rowFilter;
+
+        Compression(String label, int level, RowFilter rowFilter) {
+            this.label = label;
+            this.level = level;
+            this.rowFilter = rowFilter;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    interface ProgressListener {
+        void rowsWritten(int rows, int totalRows);
+    }
+
+    // Receives the compressed image data in pieces, each becomes the payload of one chunk
+    interface ChunkWriter {
+        void write(byte[] data, int length) throws IOException;
+    }
+
+    private int compressionLevel = Compression.BALANCED.level;
+    private int strategy = Deflater.DEFAULT_STRATEGY;
+    private RowFilter rowFilter = Compression.BALANCED.rowFilter;
+    private final Map<String, String> texts = new LinkedHashMap<>();
+    private ProgressListener progressListener;
+
+    PngEncoder() {
+    }
+
+    PngEncoder(Compression compression) {
+        setCompression(compression);
+    }
+
+    public void setCompression(Compression compression) {
+        compressionLevel = compression.level;
+        rowFilter = compression.rowFilter;
+    }
+
+    // 0 (stored) to 9 (smallest), as for Deflater
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    // Deflater.DEFAULT_STRATEGY, FILTERED or HUFFMAN_ONLY
+    public void setStrategy(int strategy) {
+        this.strategy = strategy;
+    }
+
+    public void setRowFilter(RowFilter rowFilter) {
+        this.rowFilter = rowFilter;
+    }
+
+    public RowFilter getRowFilter() {
+        return rowFilter;
+    }
+
+    // Written as a tEXt chunk, PNG text is Latin-1
+    public void addText(String keyword, String value) {
+        texts.put(keyword, value);
+    }
+
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    // Throws CancellationException when the calling thread is interrupted, output is then left incomplete
+    public void encode(RenderedImage image, OutputStream output) throws IOException {
+        boolean alpha = image.getColorModel().hasAlpha();
+        DataOutputStream out = new DataOutputStream(output);
+        writeHeader(out, image.getWidth(), image.getHeight(), alpha);
+        writeImageData(image, alpha, (data, length) -> writeChunk(out, "IDAT", data, length));
+        writeChunk(out, "IEND", new byte[0], 0);
+        out.flush();
+    }
+
+    // Signature, IHDR and the tEXt chunks
+    void writeHeader(DataOutputStream out, int width, int height, boolean alpha) throws IOException {
+        out.write(SIGNATURE);
+
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8; // Bit depth
+        header[9] = (byte) (alpha ? 6 : 2); // Truecolor with or without alpha
+        // Compression, filter method and interlace all 0
+        writeChunk(out, "IHDR", header, header.length);
+
+        for (Map.Entry<String, String> text : texts.entrySet()) {
+            byte[] keyword = text.getKey().getBytes(StandardCharsets.ISO_8859_1);
+            byte[] value = text.getValue().getBytes(StandardCharsets.ISO_8859_1);
+            byte[] data = new byte[keyword.length + 1 + value.length];
+            System.arraycopy(keyword, 0, data, 0, keyword.length);
+            System.arraycopy(value, 0, data, keyword.length + 1, value.length);
+            writeChunk(out, "tEXt", data, data.length);
+        }
+    }
+
+    // Filtered and deflated rows of image as RGBA or RGB, in pieces of at most IDAT_CHUNK_BYTES
+    void writeImageData(RenderedImage image, boolean alpha, ChunkWriter chunks) throws IOException {
+        Deflater deflater = new Deflater(compressionLevel);
+        deflater.setStrategy(strategy);
+        try {
+            ChunkOutputStream chunkOutput = new ChunkOutputStream(chunks);
+            DeflaterOutputStream compressed = new DeflaterOutputStream(chunkOutput, deflater, IDAT_CHUNK_BYTES);
+            writeRows(image, alpha ? 4 : 3, compressed);
+            compressed.finish();
+            chunkOutput.flushChunk();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeRows(RenderedImage image, int bytesPerPixel, OutputStream compressed) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int minX = image.getMinX();
+        int minY = image.getMinY();
+        int rowBytes = width * bytesPerPixel;
+        int bandRows = Math.max(1, Math.min(height, BAND_PIXELS / Math.max(1, width)));
+        ColorModel colorModel = image.getColorModel();
+        boolean directRgb = isDirectRgb(colorModel);
+
+        int[] pixels = new int[width * bandRows];
+        byte[] previous = new byte[rowBytes]; // The row above the first one counts as zeros
+        byte[] current = new byte[rowBytes];
+        byte[][] filtered = new byte[RowFilter.ADAPTIVE.ordinal()][1 + rowBytes];
+        Thread caller = Thread.currentThread();
+
+        for (int bandTop = 0; bandTop < height; bandTop += bandRows) {
+            if (caller.isInterrupted()) {
+                throw new CancellationException("PNG export interrupted");
+            }
+            int rows = Math.min(bandRows, height - bandTop);
+            Raster band = image.getData(new Rectangle(minX, minY + bandTop, width, rows));
+            readPixels(band, colorModel, directRgb, minX, minY + bandTop, width, rows, pixels);
+
+            for (int row = 0; row < rows; row++) {
+                int offset = row * width;
+                for (int x = 0, i = 0; x < width; x++) {
+                    int argb = pixels[offset + x];
+                    current[i++] = (byte) (argb >> 16);
+                    current[i++] = (byte) (argb >> 8);
+                    current[i++] = (byte) argb;
+                    if (bytesPerPixel == 4) {
+                        current[i++] = (byte) (argb >>> 24);
+                    }
+                }
+                compressed.write(filterRow(current, previous, bytesPerPixel, filtered));
+
+                byte[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+
+            if (progressListener != null) {
+                progressListener.rowsWritten(bandTop + rows, height);
+            }
+        }
+    }
+
+    // Packed 8 bit ARGB or RGB ints can be copied out of the raster without converting every pixel
+    private static boolean isDirectRgb(ColorModel colorModel) {
+        if (!(colorModel instanceof DirectColorModel) || colorModel.isAlphaPremultiplied()
+                || colorModel.getTransferType() != DataBuffer.TYPE_INT) {
+            return false;
+        }
+        DirectColorModel direct = (DirectColorModel) colorModel;
+        return direct.getRedMask() == 0xFF0000 && direct.getGreenMask() == 0xFF00 && direct.getBlueMask() == 0xFF
+                && (direct.getAlphaMask() == 0xFF000000 || direct.getAlphaMask() == 0);
+    }
+
+    private static void readPixels(Raster band, ColorModel colorModel, boolean directRgb,
+                                   int x, int y, int width, int rows, int[] pixels) {
+        if (directRgb) {
+            band.getDataElements(x, y, width, rows, pixels);
+            if (!colorModel.hasAlpha()) {
+                // Opaque when written with alpha
+                for (int i = 0; i < width * rows; i++) {
+                    pixels[i] |= 0xFF000000;
+                }
+            }
+            return;
+        }
+        Object element = null;
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < width; column++) {
+                element = band.getDataElements(x + column, y + row, element);
+                pixels[row * width + column] = colorModel.getRGB(element);
+            }
+        }
+    }
+
+    // Returns the filter type byte followed by the filtered row
+    private byte[] filterRow(byte[] row, byte[] above, int bytesPerPixel, byte[][] filtered) {
+        if (rowFilter != RowFilter.ADAPTIVE) {
+            byte[] out = filtered[rowFilter.ordinal()];
+            applyFilter(rowFilter, row, above, bytesPerPixel, out);
+            return out;
+        }
+
+        // Usual heuristic: the filter whose output bytes, taken as signed, sum to the smallest magnitude
+        byte[] best = null;
+        long bestSum = Long.MAX_VALUE;
+        for (int type = 0; type < filtered.length; type++) {
+            byte[] out = filtered[type];
+            applyFilter(RowFilter.values()[type], row, above, bytesPerPixel, out);
+            long sum = 0;
+            for (int i = 1; i < out.length && sum < bestSum; i++) {
+                sum += Math.abs(out[i]);
+            }
+            if (sum < bestSum) {
+                bestSum = sum;
+                best = out;
+            }
+        }
+        return best;
+    }
+
+    private static void applyFilter(RowFilter filter, byte[] row, byte[] above, int bytesPerPixel, byte[] out) {
+        out[0] = (byte) filter.ordinal();
+        int length = row.length;
+        switch (filter) {
+            case NONE:
+                System.arraycopy(row, 0, out, 1, length);
+                break;
+            case SUB:
+                for (int i = 0; i < length; i++) {
+                    int left = i >= bytesPerPixel ? row[i - bytesPerPixel] : 0;
+                    out[i + 1] = (byte) (row[i] - left);
+                }
+                break;
+            case UP:
+                for (int i = 0; i < length; i++) {
+                    out[i + 1] = (byte) (row[i] - above[i]);
+                }
+                break;
+            case AVERAGE:
+                for (int i = 0; i < length; i++) {
+                    int left = i >= bytesPerPixel ? row[i - bytesPerPixel] & 0xFF : 0;
+                    out[i + 1] = (byte) (row[i] - ((left + (above[i] & 0xFF)) >>> 1));
+                }
+                break;
+            case PAETH:
+                for (int i = 0; i < length; i++) {
+                    int left = i >= bytesPerPixel ? row[i - bytesPerPixel] & 0xFF : 0;
+                    int up = above[i] & 0xFF;
+                    int upLeft = i >= bytesPerPixel ? above[i - bytesPerPixel] & 0xFF : 0;
+                    out[i + 1] = (byte) (row[i] - paeth(left, up, upLeft));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Not a single filter: " + filter);
+        }
+    }
+
+    private static int paeth(int left, int up, int upLeft) {
+        int estimate = left + up - upLeft;
+        int toLeft = Math.abs(estimate - left);
+        int toUp = Math.abs(estimate - up);
+        int toUpLeft = Math.abs(estimate - upLeft);
+        if (toLeft <= toUp && toLeft <= toUpLeft) {
+            return left;
+        }
+        return toUp <= toUpLeft ? up : upLeft;
+    }
+
+    static void writeChunk(DataOutputStream out, String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    // Collects the deflate stream and hands it on in pieces of at most IDAT_CHUNK_BYTES
+    private static final class ChunkOutputStream extends OutputStream {
+        private final ChunkWriter chunks;
+        private final byte[] buffer = new byte[IDAT_CHUNK_BYTES];
+        private int size;
+
+        ChunkOutputStream(ChunkWriter chunks) {
+            this.chunks = chunks;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (size == buffer.length) {
+                flushChunk();
+            }
+            buffer[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (size == buffer.length) {
+                    flushChunk();
+                }
+                int count = Math.min(len, buffer.length - size);
+                System.arraycopy(b, off, buffer, size, count);
+                size += count;
+                off += count;
+                len -= count;
+            }
+        }
+
+        void flushChunk() throws IOException {
+            if (size > 0) {
+                chunks.write(buffer, size);
+                size = 0;
+            }
+        }
+    }
+}
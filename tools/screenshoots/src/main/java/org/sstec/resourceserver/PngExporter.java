@@ -0,0 +1,78 @@
+package org.sstec.resourceserver;
+
+import java.awt.Rectangle;
+import java.awt.image.RenderedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+// The two ways images leave the app as PNG: plain, or with the shapes stored as JSON in a "Shapes" tEXt chunk.
+// Both go through PngEncoder, which pulls the image row by row, so a lazily computed image such as
+// TiledBlurImage never has to exist in full.
+final class PngExporter {
+
+    private PngExporter() {
+    }
+
+    public static void write(RenderedImage image, File file) throws IOException {
+        write(image, file, new PngEncoder());
+    }
+
+    public static void write(RenderedImage image, OutputStream output) throws IOException {
+        new PngEncoder().encode(image, output);
+    }
+
+    // encoder carries the compression settings and progress listener, a partly written file is deleted
+    public static void write(RenderedImage image, File file, PngEncoder encoder) throws IOException {
+        boolean written = false;
+        try (OutputStream output = new BufferedOutputStream(new FileOutputStream(file))) {
+            encoder.encode(image, output);
+            written = true;
+        } finally {
+            if (!written && !file.delete()) {
+                System.err.println("Could not delete incomplete file " + file);
+            }
+        }
+    }
+
+    public static void writeWithShapes(RenderedImage image, List<SelectionShape> shapes, File file) throws IOException {
+        PngEncoder encoder = new PngEncoder();
+        encoder.addText("Shapes", shapesMetadata(shapes));
+        write(image, file, encoder);
+    }
+
+    public static void writeWithShapes(RenderedImage image, List<SelectionShape> shapes, OutputStream output) throws IOException {
+        PngEncoder encoder = new PngEncoder();
+        encoder.addText("Shapes", shapesMetadata(shapes));
+        encoder.encode(image, output);
+    }
+
+    static String shapesMetadata(List<SelectionShape> shapes) {
+        StringBuilder metadataBuilder = new StringBuilder();
+        metadataBuilder.append("{");
+        metadataBuilder.append("\"shapes\":[");
+
+        for (int i = 0; i < shapes.size(); i++) {
+            SelectionShape shape = shapes.get(i);
+            Rectangle bounds = shape.getBounds();
+            if (i > 0) metadataBuilder.append(",");
+            metadataBuilder.append("{");
+            metadataBuilder.append("\"x\":").append(bounds.x).append(",");
+            metadataBuilder.append("\"y\":").append(bounds.y).append(",");
+            metadataBuilder.append("\"width\":").append(bounds.width).append(",");
+            metadataBuilder.append("\"height\":").append(bounds.height).append(",");
+            metadataBuilder.append("\"type\":\"").append(shape.getShape()).append("\",");
+            metadataBuilder.append("\"borderStyle\":\"").append(shape.getBorderStyle()).append("\",");
+            metadataBuilder.append("\"borderColor\":\"").append(shape.getBorderColor()).append("\",");
+            metadataBuilder.append("\"pillStyle\":\"").append(shape.getPillStyle()).append("\",");
+            metadataBuilder.append("\"pillPosition\":").append(shape.getPillPosition()).append(",");
+            metadataBuilder.append("\"pillSize\":").append(shape.getPillSize());
+            metadataBuilder.append("}");
+        }
+        metadataBuilder.append("]}");
+        return metadataBuilder.toString();
+    }
+}
@@ -0,0 +1,102 @@
+package org.sstec.resourceserver;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Keeps one persistent processed image: the blurred image with the selections pasted from the original.
+// It remembers which selections the buffer holds, so after an edit only the areas of selections that
+// were added, removed or moved get recomposited instead of the whole image.
+class SelectionCompositor {
+    private BufferedImage buffer;
+
+    // What buffer currently shows, composedBlurred is null when its content is unknown
+    private BufferedImage composedOriginal;
+    private BufferedImage composedBlurred;
+    private List<Rectangle> composedSelections = Collections.emptyList();
+
+    public BufferedImage getBuffer() {
+        return buffer;
+    }
+
+    // Images are compared by identity, so blurred must not be written to once passed here
+    public BufferedImage compose(BufferedImage original, BufferedImage blurred, List<Rectangle> selections) {
+        int width = original.getWidth();
+        int height = original.getHeight();
+        Rectangle imageBounds = new Rectangle(0, 0, width, height);
+
+        List<Rectangle> dirtyAreas;
+        if (buffer == null || buffer.getWidth() != width || buffer.getHeight() != height) {
+            buffer = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            dirtyAreas = Collections.singletonList(imageBounds);
+        } else if (original != composedOriginal || blurred != composedBlurred) {
+            dirtyAreas = Collections.singletonList(imageBounds);
+        } else {
+            dirtyAreas = changedAreas(composedSelections, selections, imageBounds);
+        }
+
+        // Until this finishes the buffer may be half updated
+        composedBlurred = null;
+        if (!dirtyAreas.isEmpty()) {
+            Graphics2D g2d = buffer.createGraphics();
+            for (Rectangle dirty : dirtyAreas) {
+                g2d.setClip(dirty);
+
+                // Blurred background replaces whatever was there
+                g2d.setComposite(AlphaComposite.Src);
+                g2d.drawImage(blurred, 0, 0, null);
+
+                g2d.setComposite(AlphaComposite.SrcOver);
+                pasteSelections(g2d, original, selections, dirty);
+            }
+            g2d.dispose();
+        }
+
+        composedOriginal = original;
+        composedBlurred = blurred;
+        // Copies, callers may move their rectangles in place
+        composedSelections = new ArrayList<>(selections.size());
+        for (Rectangle rect : selections) {
+            composedSelections.add(new Rectangle(rect));
+        }
+        return buffer;
+    }
+
+    // Pastes the parts of selections inside area unblurred from the original image, same as drawing them over the blur
+    static void pasteSelections(Graphics2D g2d, BufferedImage original, List<Rectangle> selections, Rectangle area) {
+        for (Rectangle rect : selections) {
+            Rectangle clippedRect = rect.intersection(area);
+            if (clippedRect.width > 0 && clippedRect.height > 0) {
+                BufferedImage unblurredPortion = original.getSubimage(
+                        clippedRect.x, clippedRect.y, clippedRect.width, clippedRect.height);
+                g2d.drawImage(unblurredPortion, clippedRect.x, clippedRect.y, null);
+            }
+        }
+    }
+
+    // Bounds of the selections that are only in one of the lists, each selection left in place matches one
+    // equal rectangle of the other list
+    private static List<Rectangle> changedAreas(List<Rectangle> before, List<Rectangle> after, Rectangle imageBounds) {
+        List<Rectangle> unmatched = new ArrayList<>(before);
+        List<Rectangle> changed = new ArrayList<>();
+        for (Rectangle rect : after) {
+            if (!unmatched.remove(rect)) {
+                changed.add(rect);
+            }
+        }
+        changed.addAll(unmatched);
+
+        List<Rectangle> dirtyAreas = new ArrayList<>(changed.size());
+        for (Rectangle rect : changed) {
+            Rectangle clippedRect = rect.intersection(imageBounds);
+            if (clippedRect.width > 0 && clippedRect.height > 0) {
+                dirtyAreas.add(clippedRect);
+            }
+        }
+        return dirtyAreas;
+    }
+}
@@ -0,0 +1,160 @@
+package org.sstec.resourceserver;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Hit-testing for ImagePanel's shapes and their numbered pills, in image coordinates. Entries are keyed by
+// shape index and bucketed into a uniform grid, so a click only tests the few shapes near it instead of
+// every shape. Kept up to date one entry at a time as shapes are added, moved, restyled or deleted.
+class SelectionIndex {
+    static final int CELL_SIZE = 64;
+
+    // Copies, callers keep mutating the rectangles they pass in
+    private final List<Rectangle> shapeBounds = new ArrayList<>();
+    private final List<Rectangle> pillBounds = new ArrayList<>();
+    private final Map<Long, Cell> cells = new HashMap<>();
+
+    public int size() {
+        return shapeBounds.size();
+    }
+
+    // Appends the entry for shape index size()
+    public void add(Rectangle shape, Rectangle pill) {
+        int index = shapeBounds.size();
+        shapeBounds.add(new Rectangle(shape));
+        pillBounds.add(new Rectangle(pill));
+        addToCells(index);
+    }
+
+    public void update(int index, Rectangle shape, Rectangle pill) {
+        if (shapeBounds.get(index).equals(shape) && pillBounds.get(index).equals(pill)) {
+            return;
+        }
+        removeFromCells(index);
+        shapeBounds.get(index).setBounds(shape);
+        pillBounds.get(index).setBounds(pill);
+        addToCells(index);
+    }
+
+    // Shapes after index move down by one, as they do in ImagePanel's list
+    public void remove(int index) {
+        removeFromCells(index);
+        shapeBounds.remove(index);
+        pillBounds.remove(index);
+        if (index < shapeBounds.size()) {
+            for (Cell cell : cells.values()) {
+                cell.shiftAbove(index);
+            }
+        }
+    }
+
+    public void clear() {
+        shapeBounds.clear();
+        pillBounds.clear();
+        cells.clear();
+    }
+
+    // Topmost (last added) shape whose pill contains point, or -1
+    public int pillAt(Point point) {
+        return topmostAt(point, pillBounds);
+    }
+
+    // Topmost (last added) shape whose bounds contain point, or -1
+    public int shapeAt(Point point) {
+        return topmostAt(point, shapeBounds);
+    }
+
+    private int topmostAt(Point point, List<Rectangle> bounds) {
+        Cell cell = cells.get(key(Math.floorDiv(point.x, CELL_SIZE), Math.floorDiv(point.y, CELL_SIZE)));
+        if (cell == null) {
+            return -1;
+        }
+        int topmost = -1;
+        for (int i = 0; i < cell.size; i++) {
+            int index = cell.ids[i];
+            if (index > topmost && bounds.get(index).contains(point)) {
+                topmost = index;
+            }
+        }
+        return topmost;
+    }
+
+    // An entry sits in every cell its shape or its pill overlaps
+    private void addToCells(int index) {
+        Rectangle covered = coverage(index);
+        for (int cellY = firstCell(covered.y); cellY <= lastCell(covered.y, covered.height); cellY++) {
+            for (int cellX = firstCell(covered.x); cellX <= lastCell(covered.x, covered.width); cellX++) {
+                cells.computeIfAbsent(key(cellX, cellY), k -> new Cell()).add(index);
+            }
+        }
+    }
+
+    private void removeFromCells(int index) {
+        Rectangle covered = coverage(index);
+        for (int cellY = firstCell(covered.y); cellY <= lastCell(covered.y, covered.height); cellY++) {
+            for (int cellX = firstCell(covered.x); cellX <= lastCell(covered.x, covered.width); cellX++) {
+                long key = key(cellX, cellY);
+                Cell cell = cells.get(key);
+                if (cell != null && cell.remove(index) && cell.size == 0) {
+                    cells.remove(key);
+                }
+            }
+        }
+    }
+
+    private Rectangle coverage(int index) {
+        Rectangle shape = shapeBounds.get(index);
+        Rectangle pill = pillBounds.get(index);
+        if (pill.isEmpty()) {
+            return shape;
+        }
+        return shape.isEmpty() ? pill : shape.union(pill);
+    }
+
+    private static int firstCell(int start) {
+        return Math.floorDiv(start, CELL_SIZE);
+    }
+
+    private static int lastCell(int start, int length) {
+        return Math.floorDiv(start + Math.max(length, 1) - 1, CELL_SIZE);
+    }
+
+    private static long key(int cellX, int cellY) {
+        return ((long) cellX << 32) | (cellY & 0xffffffffL);
+    }
+
+    private static final class Cell {
+        int[] ids = new int[4];
+        int size;
+
+        void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        boolean remove(int id) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id) {
+                    ids[i] = ids[--size];
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void shiftAbove(int removed) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] > removed) {
+                    ids[i]--;
+                }
+            }
+        }
+    }
+}
@@ -13,9 +13,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Collections;
-import org.apache.batik.transcoder.TranscoderInput;
-import org.apache.batik.transcoder.TranscoderOutput;
-import org.apache.batik.transcoder.image.PNGTranscoder;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import javax.imageio.metadata.IIOMetadata;
 import javax.imageio.metadata.IIOMetadataNode;
@@ -53,11 +52,24 @@ public class SelectiveBlurApp extends JFrame {
     private String currentPillStyle = "Modern";
 
     private BufferedImage originalImage;
-    private BufferedImage fullyBlurredImageCache; // Cache for current blur radius
     private BufferedImage processedImage;
     private List<Rectangle> selections = new ArrayList<>();
     private int blurRadius = 23;
-    private boolean blurRadiusChangedSinceLastFullBlur = true; // Flag
+    private final BlurRenderer blurRenderer = new BlurRenderer(); // Blurs off the EDT, keeps the blurred image cached
+    private static final int ARROW_HEAD_LENGTH = 15;
+    // Full size ARGB buffers an open image needs: original, blur, the two compositor buffers and the two
+    // GaussianFilter scratch buffers. Further blurs live in the BlurCache, within its own budget.
+    private static final int BUFFERS_PER_OPEN_IMAGE = 6;
+    private static final String[] TOOLBAR_ICONS = {
+        "open", "save", "save-selected", "clear", "screenshot", "undo", "copy", "delete"
+    };
+    private SwingWorker<Void, Void> exportWorker; // Image or animation being written, null when no save is running
+
+    // Compression picked in the last save dialog
+    private PngEncoder.Compression exportCompression = PngEncoder.Compression.BALANCED;
+    private PngEncoder.RowFilter exportRowFilter; // null uses the filter of the compression preset
+    private JComboBox<PngEncoder.Compression> compressionSelector;
+    private JComboBox<String> rowFilterSelector;
 
     private Timer blurUpdateTimer; // For debouncing slider updates
     private final BasicStroke SELECTION_BORDER_STROKE = new BasicStroke(2f); // Border thickness
@@ -68,6 +80,13 @@ public class SelectiveBlurApp extends JFrame {
     public SelectiveBlurApp() {
         setTitle("Selective Blur Tool");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+
+        // Render or read all icons in parallel, the window does not wait for them and they fill in when ready
+        CompletableFuture.allOf(
+                IconCache.DEFAULT.preload(32, 32, TOOLBAR_ICONS),
+                IconCache.DEFAULT.preload(20, 20, "zoom-in"),
+                IconCache.DEFAULT.preload(400, 400, "placeholder"))
+            .thenRun(StartupProfiler::iconsLoaded);
         
         // Initialize components
         initComponents();
@@ -84,7 +103,6 @@ public class SelectiveBlurApp extends JFrame {
         // Initialize blur update timer
         blurUpdateTimer = new Timer(100, e -> {
             if (originalImage != null) {
-                blurRadiusChangedSinceLastFullBlur = true;
                 updateProcessedImage();
             }
         });
@@ -98,8 +116,11 @@ public class SelectiveBlurApp extends JFrame {
         setMinimumSize(new Dimension(800, 600));
         setLocationRelativeTo(null);
 
+        StartupProfiler.mark("components built");
+
         // Capture screen area on startup
         captureInitialScreenArea();
+        StartupProfiler.mark("screen captured");
     }
 
     private void initComponents() {
@@ -198,7 +219,6 @@ public class SelectiveBlurApp extends JFrame {
         blurRadiusSelector.setSelectedItem("23");
         blurRadiusSelector.addActionListener(e -> {
             blurRadius = Integer.parseInt((String) blurRadiusSelector.getSelectedItem());
-            blurRadiusChangedSinceLastFullBlur = true;
             if (originalImage != null) {
                 if (blurUpdateTimer.isRunning()) {
                     blurUpdateTimer.restart();
@@ -624,12 +644,9 @@ public class SelectiveBlurApp extends JFrame {
             public void mousePressed(MouseEvent e) {
                 if (originalImage == null) return;
                 Point imagePoint = imagePanel.panelToImageCoordinates(e.getPoint());
-                for (int i = selections.size() - 1; i >= 0; i--) {
-                    Rectangle rect = selections.get(i);
-                    if (rect.contains(imagePoint)) {
-                        imagePanel.setDraggedSelection(i, e.getPoint());
-                        break;
-                    }
+                int index = imagePanel.shapeIndexAt(imagePoint);
+                if (index >= 0) {
+                    imagePanel.setDraggedSelection(index, e.getPoint());
                 }
             }
 
@@ -670,6 +687,18 @@ public class SelectiveBlurApp extends JFrame {
         if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
             File selectedFile = fileChooser.getSelectedFile();
             try {
+                // Checked from the header, decoding an image there is no room for would end in an OutOfMemoryError
+                Dimension size = ImageSizes.read(selectedFile);
+                long neededBytes = ImageSizes.bufferBytes(size.width, size.height, BUFFERS_PER_OPEN_IMAGE);
+                long heapBytes = Runtime.getRuntime().maxMemory() - BlurCache.DEFAULT_BUDGET_BYTES;
+                if (neededBytes > heapBytes) {
+                    JOptionPane.showMessageDialog(this, String.format(
+                        "%d x %d is too large to edit with %d MB of heap, about %d MB are needed.%n"
+                            + "Start with a larger -Xmx, or blur it with BatchBlurCli --strip-rows.",
+                        size.width, size.height, heapBytes >> 20, neededBytes >> 20),
+                        "Image Too Large", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
                 BufferedImage image = ImageIO.read(selectedFile);
                 if (image == null) {
                     JOptionPane.showMessageDialog(this, "Could not read image file.",
@@ -677,6 +706,7 @@ public class SelectiveBlurApp extends JFrame {
                     return;
                 }
 
+                blurRenderer.open(image); // Drop renders, prefetches and blurs of the previous image
                 originalImage = image;
                 processedImage = new BufferedImage(
                     image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
@@ -693,6 +723,7 @@ public class SelectiveBlurApp extends JFrame {
     }
 
     private void saveBlurredImageAction() {
+        flushPendingRender();
         if (processedImage == null) {
             JOptionPane.showMessageDialog(this, "No processed image to save.", "Warning", JOptionPane.WARNING_MESSAGE);
             return;
@@ -751,53 +782,43 @@ public class SelectiveBlurApp extends JFrame {
             String shape = imagePanel.getShapeForSelection(i);
             String borderStyle = imagePanel.getBorderStyleForSelection(i);
             String borderColor = imagePanel.getBorderColorForSelection(i);
-            drawShapeWithStyle(g2d, rect, shape, borderStyle, borderColor);
+            AnnotationRenderer.drawShapeWithStyle(g2d, rect, shape, borderStyle, borderColor);
         }
 
         g2d.dispose();
 
-        // Create frames for animation
-        List<BufferedImage> frames = new ArrayList<>();
+        // One arrow per frame from each selection to the next, every frame keeps the arrows before it
         List<Rectangle> sortedRects = new ArrayList<>(selections);
         Collections.sort(sortedRects, (r1, r2) -> {
             int index1 = selections.indexOf(r1);
             int index2 = selections.indexOf(r2);
             return Integer.compare(index1, index2);
         });
+        List<AnimationFrames.Layer> arrows = new ArrayList<>();
+        for (int j = 0; j + 1 < sortedRects.size(); j++) {
+            Rectangle start = sortedRects.get(j);
+            Rectangle end = sortedRects.get(j + 1);
+            Point startPoint = getBorderIntersectionPoint(start, end);
+            Point endPoint = getBorderIntersectionPoint(end, start);
+            arrows.add(new AnimationFrames.Layer() {
+                @Override
+                public Rectangle getBounds() {
+                    Rectangle bounds = new Rectangle(startPoint);
+                    bounds.add(endPoint);
+                    bounds.grow(ARROW_HEAD_LENGTH + 3, ARROW_HEAD_LENGTH + 3); // Head, stroke and antialiasing
+                    return bounds;
+                }
 
-        // Create frames with arrows
-        for (int i = 0; i < sortedRects.size(); i++) {
-            BufferedImage frame = new BufferedImage(
-                baseImage.getWidth(),
-                baseImage.getHeight(),
-                BufferedImage.TYPE_INT_ARGB
-            );
-            Graphics2D frameG2d = frame.createGraphics();
-            
-            // Enable high-quality rendering
-            frameG2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            frameG2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-            frameG2d.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
-            
-            // Draw base image
-            frameG2d.drawImage(baseImage, 0, 0, null);
-            
-            // Draw arrows up to current rectangle
-            for (int j = 0; j < i; j++) {
-                Rectangle start = sortedRects.get(j);
-                Rectangle end = sortedRects.get(j + 1);
-                Point startPoint = getBorderIntersectionPoint(start, end);
-                Point endPoint = getBorderIntersectionPoint(end, start);
-                drawArrow(frameG2d, startPoint, endPoint);
-            }
-            
-            frameG2d.dispose();
-            frames.add(frame);
+                @Override
+                public void paint(Graphics2D g2d) {
+                    drawArrow(g2d, startPoint, endPoint);
+                }
+            });
         }
 
-        // Save as animated GIF
+        // Save as animated GIF, or as full color animated PNG
         JFileChooser fileChooser = new JFileChooser();
-        fileChooser.setDialogTitle("Save Animated GIF");
+        fileChooser.setDialogTitle("Save Animation");
         
         // Set default directory to user's Desktop
         String userHome = System.getProperty("user.home");
@@ -807,60 +828,33 @@ public class SelectiveBlurApp extends JFrame {
         }
         
         fileChooser.setSelectedFile(new File(generateRandomFileName() + ".gif"));
-        fileChooser.setFileFilter(new FileNameExtensionFilter("GIF Images", "gif"));
+        FileNameExtensionFilter gifFilter = new FileNameExtensionFilter("GIF Images", "gif");
+        FileNameExtensionFilter apngFilter = new FileNameExtensionFilter("Animated PNG, full color (*.png)", "png");
+        fileChooser.addChoosableFileFilter(gifFilter);
+        fileChooser.addChoosableFileFilter(apngFilter);
+        fileChooser.setFileFilter(gifFilter);
         
         if (fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
             File outputFile = fileChooser.getSelectedFile();
-            if (!outputFile.getName().toLowerCase().endsWith(".gif")) {
-                outputFile = new File(outputFile.getAbsolutePath() + ".gif");
+            String fileName = outputFile.getName().toLowerCase();
+            boolean apng = fileName.endsWith(".png") || (fileChooser.getFileFilter() == apngFilter && !fileName.endsWith(".gif"));
+            String extension = apng ? ".png" : ".gif";
+            if (!fileName.endsWith(extension)) {
+                outputFile = new File(outputFile.getAbsolutePath() + extension);
             }
 
-            try {
-                // Create ImageWriter
-                ImageWriter writer = ImageIO.getImageWritersByFormatName("gif").next();
-                ImageWriteParam writeParam = writer.getDefaultWriteParam();
-                ImageTypeSpecifier typeSpecifier = ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_ARGB);
-
-                // Create output stream
-                ImageOutputStream output = ImageIO.createImageOutputStream(outputFile);
-                writer.setOutput(output);
-
-                // Create metadata
-                IIOMetadata metadata = writer.getDefaultImageMetadata(typeSpecifier, writeParam);
-                String metaFormatName = metadata.getNativeMetadataFormatName();
-                IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(metaFormatName);
-
-                // Add animation metadata
-                IIOMetadataNode graphicsControlExtensionNode = new IIOMetadataNode("GraphicControlExtension");
-                graphicsControlExtensionNode.setAttribute("disposalMethod", "none");
-                graphicsControlExtensionNode.setAttribute("userInputFlag", "FALSE");
-                graphicsControlExtensionNode.setAttribute("transparentColorFlag", "FALSE");
-                graphicsControlExtensionNode.setAttribute("delayTime", "50"); // 500ms = 50 * 10ms
-                graphicsControlExtensionNode.setAttribute("transparentColorIndex", "0");
-                root.appendChild(graphicsControlExtensionNode);
-
-                // Add application extension for looping
-                IIOMetadataNode appExtensionsNode = new IIOMetadataNode("ApplicationExtensions");
-                IIOMetadataNode child = new IIOMetadataNode("ApplicationExtension");
-                child.setAttribute("applicationID", "NETSCAPE");
-                child.setAttribute("authenticationCode", "2.0");
-                child.setUserObject(new byte[]{0x1, 0x0, 0x0}); // Loop forever
-                appExtensionsNode.appendChild(child);
-                root.appendChild(appExtensionsNode);
-
-                metadata.setFromTree(metaFormatName, root);
-
-                // Write frames
-                writer.prepareWriteSequence(null);
-                for (BufferedImage frame : frames) {
-                    writer.writeToSequence(new IIOImage(frame, null, metadata), writeParam);
-                }
-                writer.endWriteSequence();
-                output.close();
-
-                showNotification("Animated GIF saved successfully!");
-            } catch (IOException ex) {
-                showNotification("Error saving animated GIF: " + ex.getMessage(), true);
+            if (isExportRunning()) {
+                return;
+            }
+            File file = outputFile;
+            if (apng) {
+                PngEncoder encoder = createExportEncoder();
+                exportInBackground(file, encoder, () -> ApngExporter.write(baseImage, arrows, 500, file, encoder),
+                        "animation", "Animated PNG saved successfully!");
+            } else {
+                // No progress to report, so the save cannot be cancelled and shows no dialog
+                exportInBackground(file, null, () -> GifExporter.write(baseImage, arrows, 500, file),
+                        "animation", "Animated GIF saved successfully!");
             }
         }
     }
@@ -899,7 +893,7 @@ public class SelectiveBlurApp extends JFrame {
 
         // Calculate arrow head
         double angle = Math.atan2(end.y - start.y, end.x - start.x);
-        int arrowLength = 15;
+        int arrowLength = ARROW_HEAD_LENGTH;
         int arrowWidth = 8;
 
         // Draw arrow line
@@ -933,6 +927,7 @@ public class SelectiveBlurApp extends JFrame {
         javax.swing.filechooser.FileNameExtensionFilter pngFilter = new javax.swing.filechooser.FileNameExtensionFilter("PNG Images (*.png)", "png");
         fileChooser.addChoosableFileFilter(pngFilter);
         fileChooser.setFileFilter(pngFilter);
+        fileChooser.setAccessory(createCompressionAccessory());
 
         if (fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
             File outputFile = fileChooser.getSelectedFile();
@@ -944,6 +939,11 @@ public class SelectiveBlurApp extends JFrame {
                 filePath = outputFile.getAbsolutePath();
             }
 
+            if (isExportRunning()) {
+                return;
+            }
+            PngEncoder encoder = createEncoderFromAccessory();
+
             try {
                 // Create a new image that includes the pills
                 BufferedImage finalImage = new BufferedImage(imageToSave.getWidth(), imageToSave.getHeight(), BufferedImage.TYPE_INT_ARGB);
@@ -955,7 +955,7 @@ public class SelectiveBlurApp extends JFrame {
                 // Draw pills
                 for (int i = 0; i < selections.size(); i++) {
                     Rectangle rect = selections.get(i);
-                    int position = imagePanel.getPillPositions().getOrDefault(i, 0);
+                    int position = imagePanel.getPillPositionForSelection(i);
                     
                     // Calculate pill size
                     int pillWidth = (int)(rect.width * ImagePanel.PILL_SIZE_RATIO);
@@ -1038,94 +1038,63 @@ public class SelectiveBlurApp extends JFrame {
                 g2d.dispose();
                 
                 // Save the final image with pills
-                boolean success = ImageIO.write(finalImage, "PNG", outputFile);
-                if (success) {
-                    showNotification("Image saved successfully!");
-                } else {
-                    showNotification("Failed to save image", true);
-                }
-            } catch (IOException ex) {
+                exportPng(finalImage, outputFile, encoder);
+            } catch (RuntimeException ex) {
                 showNotification("Error saving image: " + ex.getMessage(), true);
             }
         }
     }
 
     private void loadZoomIcon() {
-        try {
-            // Load SVG from resources
-            InputStream svgStream = getClass().getResourceAsStream("/icons/zoom-in.svg");
-            if (svgStream == null) {
-                System.err.println("Could not find zoom-in.svg in resources");
-                return;
-            }
-
-            // Create a transcoder input
-            TranscoderInput input = new TranscoderInput(svgStream);
-
-            // Create a transcoder output
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            TranscoderOutput output = new TranscoderOutput(outputStream);
-
-            // Create a PNG transcoder
-            PNGTranscoder transcoder = new PNGTranscoder();
-            transcoder.addTranscodingHint(PNGTranscoder.KEY_WIDTH, 20f);
-            transcoder.addTranscodingHint(PNGTranscoder.KEY_HEIGHT, 20f);
-
-            // Transcode the SVG to PNG
-            transcoder.transcode(input, output);
-
-            // Convert the PNG data to a BufferedImage
-            byte[] pngData = outputStream.toByteArray();
-            zoomIcon = ImageIO.read(new java.io.ByteArrayInputStream(pngData));
-
-        } catch (Exception e) {
-            System.err.println("Error loading zoom icon: " + e.getMessage());
-            e.printStackTrace();
-        }
+        IconCache.DEFAULT.load("zoom-in", 20, 20).thenAccept(icon -> SwingUtilities.invokeLater(() -> zoomIcon = icon));
     }
 
+    // Renders in the background, the result replaces processedImage once the latest request finishes
     private void updateProcessedImage() {
         if (originalImage == null) {
+            blurRenderer.cancel();
             processedImage = null;
             imagePanel.setProcessedImageToDisplay(null);
             imagePanel.repaint();
             return;
         }
 
-        if (blurRadiusChangedSinceLastFullBlur || fullyBlurredImageCache == null) {
-            GaussianFilter filter = new GaussianFilter(blurRadius);
-            fullyBlurredImageCache = new BufferedImage(originalImage.getWidth(), originalImage.getHeight(), BufferedImage.TYPE_INT_ARGB);
-            filter.filter(originalImage, fullyBlurredImageCache);
-            blurRadiusChangedSinceLastFullBlur = false;
-        }
+        blurRenderer.submit(originalImage, blurRadius, selections, (image, isFinal) -> {
+            processedImage = image;
+            imagePanel.setProcessedImageToDisplay(image);
+            if (isFinal) {
+                // Get the radii next to this one ready, so stepping through the selector is served from the cache.
+                // Not after a preview, the prefetch would compete with the blur still running.
+                blurRenderer.prefetch(originalImage, neighbouringBlurRadii());
+            }
+        });
+    }
 
-        processedImage = new BufferedImage(originalImage.getWidth(), originalImage.getHeight(), BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g2dProcessed = processedImage.createGraphics();
-        
-        // Enable high-quality rendering
-        g2dProcessed.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        g2dProcessed.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-        g2dProcessed.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
-        
-        // Draw the blurred background
-        g2dProcessed.drawImage(fullyBlurredImageCache, 0, 0, null);
-
-        if (!selections.isEmpty()) {
-            for (int i = 0; i < selections.size(); i++) {
-                Rectangle rect = selections.get(i);
-                Rectangle clippedRect = rect.intersection(new Rectangle(0, 0, originalImage.getWidth(), originalImage.getHeight()));
-                if (clippedRect.width > 0 && clippedRect.height > 0) {
-                    // Paste unblurred portion from original image
-                    BufferedImage unblurredPortion = originalImage.getSubimage(
-                            clippedRect.x, clippedRect.y, clippedRect.width, clippedRect.height
-                    );
-                    g2dProcessed.drawImage(unblurredPortion, clippedRect.x, clippedRect.y, null);
-                }
+    // Closest radii below and above the current one offered by blurRadiusSelector
+    private int[] neighbouringBlurRadii() {
+        int lower = -1;
+        int higher = -1;
+        for (int i = 0; i < blurRadiusSelector.getItemCount(); i++) {
+            int radius = Integer.parseInt(blurRadiusSelector.getItemAt(i));
+            if (radius < blurRadius && radius > lower) {
+                lower = radius;
+            } else if (radius > blurRadius && (higher == -1 || radius < higher)) {
+                higher = radius;
             }
         }
-        g2dProcessed.dispose();
+        if (lower == -1) {
+            return higher == -1 ? new int[0] : new int[]{higher};
+        }
+        return higher == -1 ? new int[]{lower} : new int[]{higher, lower};
+    }
 
-        imagePanel.setProcessedImageToDisplay(processedImage);
+    // Makes processedImage reflect the latest edits before it gets saved
+    private void flushPendingRender() {
+        BufferedImage latest = blurRenderer.awaitLatest();
+        if (latest != null) {
+            processedImage = latest;
+            imagePanel.setProcessedImageToDisplay(latest);
+        }
     }
 
     private void setupSelectionWindow() {
@@ -1469,10 +1438,9 @@ public class SelectiveBlurApp extends JFrame {
             // Set blur radius to 0 for screenshots
             blurRadius = 0;
             blurRadiusSelector.setSelectedItem("0");
-            blurRadiusChangedSinceLastFullBlur = true;
-            fullyBlurredImageCache = null;
             
             // Load the screenshot into the application
+            blurRenderer.open(screenshot); // Drop renders, prefetches and blurs of the previous image
             originalImage = screenshot;
             selections.clear();
             imagePanel.setImage(originalImage);
@@ -1503,66 +1471,42 @@ public class SelectiveBlurApp extends JFrame {
         button.setContentAreaFilled(false);
         button.setCursor(new Cursor(Cursor.HAND_CURSOR));
         
-        try {
-            // Load SVG from resources
-            InputStream svgStream = getClass().getResourceAsStream("/icons/" + iconName + ".svg");
-            if (svgStream == null) {
-                System.err.println("Could not find " + iconName + ".svg in resources");
-                return button;
+        // The button shows up empty until its icon is loaded
+        IconCache.DEFAULT.load(iconName, width, height).thenAccept(icon -> {
+            if (icon != null) {
+                SwingUtilities.invokeLater(() -> setButtonIcon(button, icon, width, height));
             }
+        });
+        return button;
+    }
 
-            // Create a transcoder input
-            TranscoderInput input = new TranscoderInput(svgStream);
-
-            // Create a transcoder output
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            TranscoderOutput output = new TranscoderOutput(outputStream);
-
-            // Create a PNG transcoder
-            PNGTranscoder transcoder = new PNGTranscoder();
-            transcoder.addTranscodingHint(PNGTranscoder.KEY_WIDTH, (float)width);
-            transcoder.addTranscodingHint(PNGTranscoder.KEY_HEIGHT, (float)height);
-
-            // Transcode the SVG to PNG
-            transcoder.transcode(input, output);
-
-            // Convert the PNG data to a BufferedImage
-            byte[] pngData = outputStream.toByteArray();
-            BufferedImage icon = ImageIO.read(new ByteArrayInputStream(pngData));
-            
-            // Create disabled version of the icon
-            BufferedImage disabledIcon = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-            Graphics2D g2d = disabledIcon.createGraphics();
-            g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.4f));
-            g2d.drawImage(icon, 0, 0, null);
-            g2d.dispose();
-
-            // Set the icons
-            button.setIcon(new ImageIcon(icon));
-            button.setDisabledIcon(new ImageIcon(disabledIcon));
-            
-            // Add hover effect
-            button.addMouseListener(new MouseAdapter() {
-                @Override
-                public void mouseEntered(MouseEvent e) {
-                    if (button.isEnabled()) {
-                        button.setBackground(new Color(0, 0, 0, 20));
-                        button.setContentAreaFilled(true);
-                    }
-                }
-                
-                @Override
-                public void mouseExited(MouseEvent e) {
-                    button.setContentAreaFilled(false);
-                }
-            });
+    private void setButtonIcon(JButton button, BufferedImage icon, int width, int height) {
+        // Create disabled version of the icon
+        BufferedImage disabledIcon = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = disabledIcon.createGraphics();
+        g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.4f));
+        g2d.drawImage(icon, 0, 0, null);
+        g2d.dispose();
 
-        } catch (Exception e) {
-            System.err.println("Error loading icon " + iconName + ": " + e.getMessage());
-            e.printStackTrace();
-        }
+        // Set the icons
+        button.setIcon(new ImageIcon(icon));
+        button.setDisabledIcon(new ImageIcon(disabledIcon));
         
-        return button;
+        // Add hover effect
+        button.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseEntered(MouseEvent e) {
+                if (button.isEnabled()) {
+                    button.setBackground(new Color(0, 0, 0, 20));
+                    button.setContentAreaFilled(true);
+                }
+            }
+            
+            @Override
+            public void mouseExited(MouseEvent e) {
+                button.setContentAreaFilled(false);
+            }
+        });
     }
 
     private void saveImage() {
@@ -1573,12 +1517,17 @@ public class SelectiveBlurApp extends JFrame {
         fileChooser.setFileFilter(new FileNameExtensionFilter("PNG Images", "png"));
         fileChooser.setCurrentDirectory(new File(System.getProperty("user.home"), "Desktop"));
         fileChooser.setSelectedFile(new File(generateRandomFileName() + ".png"));
+        fileChooser.setAccessory(createCompressionAccessory());
 
         if (fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
             File selectedFile = fileChooser.getSelectedFile();
             if (!selectedFile.getName().toLowerCase().endsWith(".png")) {
                 selectedFile = new File(selectedFile.getAbsolutePath() + ".png");
             }
+            if (isExportRunning()) {
+                return;
+            }
+            PngEncoder encoder = createEncoderFromAccessory();
 
             try {
                 // Create a buffered image of the original image size
@@ -1605,88 +1554,133 @@ public class SelectiveBlurApp extends JFrame {
                     String shape = imagePanel.getShapeForSelection(i);
                     String borderStyle = imagePanel.getBorderStyleForSelection(i);
                     String borderColor = imagePanel.getBorderColorForSelection(i);
-                    drawShapeWithStyle(g2d, rect, shape, borderStyle, borderColor);
+                    AnnotationRenderer.drawShapeWithStyle(g2d, rect, shape, borderStyle, borderColor);
                     
                     // Draw pill
-                    int position = imagePanel.getPillPositions().getOrDefault(i, 0);
+                    int position = imagePanel.getPillPositionForSelection(i);
                     String pillStyle = imagePanel.getPillStyleForSelection(i);
-                    drawPillWithStyle(g2d, rect, i, position, pillStyle);
+                    AnnotationRenderer.drawPillWithStyle(g2d, rect, i, position, pillStyle);
                 }
                 
                 g2d.dispose();
 
-                // Create metadata for shapes
-                StringBuilder metadataBuilder = new StringBuilder();
-                metadataBuilder.append("{");
-                metadataBuilder.append("\"shapes\":[");
-                
-                List<SelectionShape> shapes = imagePanel.getShapes();
-                for (int i = 0; i < shapes.size(); i++) {
-                    SelectionShape shape = shapes.get(i);
-                    Rectangle bounds = shape.getBounds();
-                    if (i > 0) metadataBuilder.append(",");
-                    metadataBuilder.append("{");
-                    metadataBuilder.append("\"x\":").append(bounds.x).append(",");
-                    metadataBuilder.append("\"y\":").append(bounds.y).append(",");
-                    metadataBuilder.append("\"width\":").append(bounds.width).append(",");
-                    metadataBuilder.append("\"height\":").append(bounds.height).append(",");
-                    metadataBuilder.append("\"type\":\"").append(shape.getShape()).append("\",");
-                    metadataBuilder.append("\"borderStyle\":\"").append(shape.getBorderStyle()).append("\",");
-                    metadataBuilder.append("\"borderColor\":\"").append(shape.getBorderColor()).append("\",");
-                    metadataBuilder.append("\"pillStyle\":\"").append(shape.getPillStyle()).append("\",");
-                    metadataBuilder.append("\"pillPosition\":").append(shape.getPillPosition()).append(",");
-                    metadataBuilder.append("\"pillSize\":").append(shape.getPillSize());
-                    metadataBuilder.append("}");
-                }
-                metadataBuilder.append("]}");
-                
-                String shapeMetadata = metadataBuilder.toString();
-
-                // Get PNG writer
-                ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
-                ImageWriteParam writeParam = writer.getDefaultWriteParam();
-                ImageTypeSpecifier typeSpecifier = ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_ARGB);
-
-                // Create output stream
-                ImageOutputStream output = ImageIO.createImageOutputStream(selectedFile);
-                writer.setOutput(output);
-
-                // Create metadata
-                IIOMetadata metadata = writer.getDefaultImageMetadata(typeSpecifier, writeParam);
-                String metaFormatName = metadata.getNativeMetadataFormatName();
-                IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(metaFormatName);
-
-                // Find or create the tEXt node
-                IIOMetadataNode textNode = null;
-                for (int i = 0; i < root.getLength(); i++) {
-                    if (root.item(i).getNodeName().equals("tEXt")) {
-                        textNode = (IIOMetadataNode) root.item(i);
-                        break;
-                    }
-                }
-                if (textNode == null) {
-                    textNode = new IIOMetadataNode("tEXt");
-                    root.appendChild(textNode);
-                }
+                // Write the image with the shapes stored in its metadata, read here as the shapes belong to the EDT
+                encoder.addText("Shapes", PngExporter.shapesMetadata(imagePanel.getShapes()));
+                exportPng(capture, selectedFile, encoder);
+            } catch (RuntimeException ex) {
+                showNotification("Error saving image: " + ex.getMessage(), true);
+            }
+        }
+    }
 
-                // Add text chunk for shape metadata
-                IIOMetadataNode textEntry = new IIOMetadataNode("tEXtEntry");
-                textEntry.setAttribute("keyword", "Shapes");
-                textEntry.setAttribute("value", shapeMetadata);
-                textNode.appendChild(textEntry);
+    // Compression options shown next to the file list of the save dialogs
+    private JComponent createCompressionAccessory() {
+        compressionSelector = new JComboBox<>(PngEncoder.Compression.values());
+        compressionSelector.setSelectedItem(exportCompression);
+        rowFilterSelector = new JComboBox<>(new String[]{"Preset", "None", "Sub", "Up", "Average", "Paeth", "Adaptive"});
+        rowFilterSelector.setSelectedIndex(exportRowFilter == null ? 0 : exportRowFilter.ordinal() + 1);
+
+        JPanel panel = new JPanel(new GridLayout(0, 1, 0, 4));
+        panel.setBorder(BorderFactory.createEmptyBorder(0, 10, 0, 0));
+        panel.add(new JLabel("Compression"));
+        panel.add(compressionSelector);
+        panel.add(new JLabel("Row filter"));
+        panel.add(rowFilterSelector);
+
+        JPanel accessory = new JPanel(new BorderLayout());
+        accessory.add(panel, BorderLayout.NORTH);
+        return accessory;
+    }
 
-                metadata.setFromTree(metaFormatName, root);
+    // Remembers the choice of the dialog that was just closed for the next save
+    private PngEncoder createEncoderFromAccessory() {
+        exportCompression = (PngEncoder.Compression) compressionSelector.getSelectedItem();
+        int filterIndex = rowFilterSelector.getSelectedIndex();
+        exportRowFilter = filterIndex == 0 ? null : PngEncoder.RowFilter.values()[filterIndex - 1];
+        return createExportEncoder();
+    }
 
-                // Write the image with metadata
-                writer.write(null, new IIOImage(capture, null, metadata), writeParam);
-                writer.dispose();
-                output.close();
+    // Encoder with the compression and row filter picked in the last save dialog
+    private PngEncoder createExportEncoder() {
+        PngEncoder encoder = new PngEncoder(exportCompression);
+        if (exportRowFilter != null) {
+            encoder.setRowFilter(exportRowFilter);
+        }
+        return encoder;
+    }
 
-                showNotification("Image saved successfully!");
-            } catch (IOException ex) {
-                showNotification("Error saving image: " + ex.getMessage(), true);
-            }
+    private boolean isExportRunning() {
+        if (exportWorker != null) {
+            showNotification("Still saving the previous image", true);
+            return true;
         }
+        return false;
+    }
+
+    // Encodes on a background thread so large captures do not freeze the window, image must not change meanwhile
+    private void exportPng(BufferedImage image, File file, PngEncoder encoder) {
+        exportInBackground(file, encoder, () -> PngExporter.write(image, file, encoder), "image",
+                "Image saved successfully!");
+    }
+
+    // Writes an export on a background thread, what it writes must not change meanwhile. Progress follows the rows
+    // encoder writes, when there is one, and cancelling interrupts the write.
+    private void exportInBackground(File file, PngEncoder encoder, ExportTask task, String what,
+                                    String successMessage) {
+        ProgressMonitor monitor = new ProgressMonitor(this, "Saving " + file.getName(), null, 0, 100);
+        monitor.setMillisToDecideToPopup(200);
+        monitor.setMillisToPopup(500);
+
+        SwingWorker<Void, Void> worker = new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                try {
+                    if (encoder != null) {
+                        encoder.setProgressListener((rows, totalRows) -> setProgress((int) (100L * rows / totalRows)));
+                    }
+                    task.write();
+                    return null;
+                } finally {
+                    // Not in done(), which a cancel runs right away while the encoder is still stopping
+                    // and deleting its partial file. A new save may only start once that is over.
+                    SwingUtilities.invokeLater(() -> exportWorker = null);
+                }
+            }
+
+            @Override
+            protected void done() {
+                monitor.close();
+                if (isCancelled()) {
+                    showNotification("Saving cancelled", true);
+                    return;
+                }
+                try {
+                    get();
+                    showNotification(successMessage);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException ex) {
+                    System.err.println("Error saving " + what + " " + file + ": " + ex.getCause().getMessage());
+                    ex.getCause().printStackTrace();
+                    showNotification("Error saving " + what + ": " + ex.getCause().getMessage(), true);
+                }
+            }
+        };
+        worker.addPropertyChangeListener(event -> {
+            if ("progress".equals(event.getPropertyName())) {
+                monitor.setProgress((Integer) event.getNewValue());
+                // Interrupts the encoder, which stops and leaves no partial file behind
+                if (monitor.isCanceled()) {
+                    worker.cancel(true);
+                }
+            }
+        });
+        exportWorker = worker;
+        worker.execute();
+    }
+
+    private interface ExportTask {
+        void write() throws IOException;
     }
 
     private void showNotification(String message) {
@@ -1795,386 +1789,6 @@ public class SelectiveBlurApp extends JFrame {
         return map;
     }
 
-    private void drawShapeWithStyle(Graphics2D g2d, Rectangle rect, String shape, String borderStyle, String borderColor) {
-        // Draw shape shadow
-        g2d.setColor(new Color(0, 0, 0, 40));
-        switch (shape) {
-            case "Ellipse":
-                g2d.fillOval(rect.x + 2, rect.y + 2, rect.width, rect.height);
-                break;
-            case "Diamond":
-                int[] xPoints = {
-                    rect.x + rect.width/2 + 2,
-                    rect.x + rect.width + 2,
-                    rect.x + rect.width/2 + 2,
-                    rect.x + 2
-                };
-                int[] yPoints = {
-                    rect.y + 2,
-                    rect.y + rect.height/2 + 2,
-                    rect.y + rect.height + 2,
-                    rect.y + rect.height/2 + 2
-                };
-                g2d.fillPolygon(xPoints, yPoints, 4);
-                break;
-            case "Star":
-                int centerX = rect.x + rect.width/2 + 2;
-                int centerY = rect.y + rect.height/2 + 2;
-                int outerRadius = Math.min(rect.width, rect.height)/2;
-                int innerRadius = outerRadius/2;
-                int[] starXPoints = new int[10];
-                int[] starYPoints = new int[10];
-                for (int j = 0; j < 10; j++) {
-                    double angle = Math.PI * j / 5;
-                    int radius = (j % 2 == 0) ? outerRadius : innerRadius;
-                    starXPoints[j] = centerX + (int)(radius * Math.sin(angle));
-                    starYPoints[j] = centerY - (int)(radius * Math.cos(angle));
-                }
-                g2d.fillPolygon(starXPoints, starYPoints, 10);
-                break;
-            case "Hexagon":
-                int[] hexXPoints = new int[6];
-                int[] hexYPoints = new int[6];
-                for (int j = 0; j < 6; j++) {
-                    double angle = 2 * Math.PI * j / 6;
-                    int radius = Math.min(rect.width, rect.height)/2;
-                    hexXPoints[j] = rect.x + rect.width/2 + 2 + (int)(radius * Math.cos(angle));
-                    hexYPoints[j] = rect.y + rect.height/2 + 2 + (int)(radius * Math.sin(angle));
-                }
-                g2d.fillPolygon(hexXPoints, hexYPoints, 6);
-                break;
-            case "Octagon":
-                int[] octXPoints = new int[8];
-                int[] octYPoints = new int[8];
-                for (int j = 0; j < 8; j++) {
-                    double angle = 2 * Math.PI * j / 8;
-                    int radius = Math.min(rect.width, rect.height)/2;
-                    octXPoints[j] = rect.x + rect.width/2 + 2 + (int)(radius * Math.cos(angle));
-                    octYPoints[j] = rect.y + rect.height/2 + 2 + (int)(radius * Math.sin(angle));
-                }
-                g2d.fillPolygon(octXPoints, octYPoints, 8);
-                break;
-            case "Rounded Rectangle":
-                g2d.fillRoundRect(rect.x + 2, rect.y + 2, rect.width, rect.height, 20, 20);
-                break;
-            default: // Rectangle
-                g2d.fillRect(rect.x + 2, rect.y + 2, rect.width, rect.height);
-        }
-
-        // Set fill color to semi-transparent grey
-        g2d.setColor(new Color(200, 200, 200, 80));
-
-        // Fill the shape with semi-transparent grey color
-        switch (shape) {
-            case "Ellipse":
-                g2d.fillOval(rect.x, rect.y, rect.width, rect.height);
-                break;
-            case "Diamond":
-                int[] xPointsFill = {
-                    rect.x + rect.width/2,
-                    rect.x + rect.width,
-                    rect.x + rect.width/2,
-                    rect.x
-                };
-                int[] yPointsFill = {
-                    rect.y,
-                    rect.y + rect.height/2,
-                    rect.y + rect.height,
-                    rect.y + rect.height/2
-                };
-                g2d.fillPolygon(xPointsFill, yPointsFill, 4);
-                break;
-            case "Star":
-                int centerXFill = rect.x + rect.width/2;
-                int centerYFill = rect.y + rect.height/2;
-                int outerRadiusFill = Math.min(rect.width, rect.height)/2;
-                int innerRadiusFill = outerRadiusFill/2;
-                int[] starXPointsFill = new int[10];
-                int[] starYPointsFill = new int[10];
-                for (int j = 0; j < 10; j++) {
-                    double angle = Math.PI * j / 5;
-                    int radius = (j % 2 == 0) ? outerRadiusFill : innerRadiusFill;
-                    starXPointsFill[j] = centerXFill + (int)(radius * Math.sin(angle));
-                    starYPointsFill[j] = centerYFill - (int)(radius * Math.cos(angle));
-                }
-                g2d.fillPolygon(starXPointsFill, starYPointsFill, 10);
-                break;
-            case "Hexagon":
-                int[] hexXPointsFill = new int[6];
-                int[] hexYPointsFill = new int[6];
-                for (int j = 0; j < 6; j++) {
-                    double angle = 2 * Math.PI * j / 6;
-                    int radius = Math.min(rect.width, rect.height)/2;
-                    hexXPointsFill[j] = rect.x + rect.width/2 + (int)(radius * Math.cos(angle));
-                    hexYPointsFill[j] = rect.y + rect.height/2 + (int)(radius * Math.sin(angle));
-                }
-                g2d.fillPolygon(hexXPointsFill, hexYPointsFill, 6);
-                break;
-            case "Octagon":
-                int[] octXPointsFill = new int[8];
-                int[] octYPointsFill = new int[8];
-                for (int j = 0; j < 8; j++) {
-                    double angle = 2 * Math.PI * j / 8;
-                    int radius = Math.min(rect.width, rect.height)/2;
-                    octXPointsFill[j] = rect.x + rect.width/2 + (int)(radius * Math.cos(angle));
-                    octYPointsFill[j] = rect.y + rect.height/2 + (int)(radius * Math.sin(angle));
-                }
-                g2d.fillPolygon(octXPointsFill, octYPointsFill, 8);
-                break;
-            case "Rounded Rectangle":
-                g2d.fillRoundRect(rect.x, rect.y, rect.width, rect.height, 20, 20);
-                break;
-            default: // Rectangle
-                g2d.fillRect(rect.x, rect.y, rect.width, rect.height);
-        }
-
-        // Set border color (fully opaque)
-        switch (borderColor) {
-            case "Blue":
-                g2d.setColor(new Color(0, 122, 255));
-                break;
-            case "Green":
-                g2d.setColor(new Color(52, 199, 89));
-                break;
-            case "Purple":
-                g2d.setColor(new Color(175, 82, 222));
-                break;
-            case "Orange":
-                g2d.setColor(new Color(255, 149, 0));
-                break;
-            case "Teal":
-                g2d.setColor(new Color(90, 200, 250));
-                break;
-            default: // Red
-                g2d.setColor(new Color(255, 59, 48));
-        }
-
-        // Set border style
-        switch (borderStyle) {
-            case "Dotted":
-                g2d.setStroke(new BasicStroke(2.5f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND, 
-                    10.0f, new float[]{2.0f, 2.0f}, 0.0f));
-                break;
-            case "Double":
-                g2d.setStroke(new BasicStroke(2.5f));
-                break;
-            case "Groove":
-                g2d.setStroke(new BasicStroke(3.0f));
-                break;
-            case "Ridge":
-                g2d.setStroke(new BasicStroke(3.0f));
-                break;
-            default: // Solid or Dashed
-                if (borderStyle.equals("Dashed")) {
-                    g2d.setStroke(new BasicStroke(2.5f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 
-                        10.0f, new float[]{5.0f, 5.0f}, 0.0f));
-                } else {
-                    g2d.setStroke(new BasicStroke(2.5f));
-                }
-        }
-
-        // Draw the border
-        switch (shape) {
-            case "Ellipse":
-                g2d.drawOval(rect.x, rect.y, rect.width, rect.height);
-                break;
-            case "Diamond":
-                int[] xPointsBorder = {
-                    rect.x + rect.width/2,
-                    rect.x + rect.width,
-                    rect.x + rect.width/2,
-                    rect.x
-                };
-                int[] yPointsBorder = {
-                    rect.y,
-                    rect.y + rect.height/2,
-                    rect.y + rect.height,
-                    rect.y + rect.height/2
-                };
-                g2d.drawPolygon(xPointsBorder, yPointsBorder, 4);
-                break;
-            case "Star":
-                int centerXBorder = rect.x + rect.width/2;
-                int centerYBorder = rect.y + rect.height/2;
-                int outerRadiusBorder = Math.min(rect.width, rect.height)/2;
-                int innerRadiusBorder = outerRadiusBorder/2;
-                int[] starXPointsBorder = new int[10];
-                int[] starYPointsBorder = new int[10];
-                for (int j = 0; j < 10; j++) {
-                    double angle = Math.PI * j / 5;
-                    int radius = (j % 2 == 0) ? outerRadiusBorder : innerRadiusBorder;
-                    starXPointsBorder[j] = centerXBorder + (int)(radius * Math.sin(angle));
-                    starYPointsBorder[j] = centerYBorder - (int)(radius * Math.cos(angle));
-                }
-                g2d.drawPolygon(starXPointsBorder, starYPointsBorder, 10);
-                break;
-            case "Hexagon":
-                int[] hexXPointsBorder = new int[6];
-                int[] hexYPointsBorder = new int[6];
-                for (int j = 0; j < 6; j++) {
-                    double angle = 2 * Math.PI * j / 6;
-                    int radius = Math.min(rect.width, rect.height)/2;
-                    hexXPointsBorder[j] = rect.x + rect.width/2 + (int)(radius * Math.cos(angle));
-                    hexYPointsBorder[j] = rect.y + rect.height/2 + (int)(radius * Math.sin(angle));
-                }
-                g2d.drawPolygon(hexXPointsBorder, hexYPointsBorder, 6);
-                break;
-            case "Octagon":
-                int[] octXPointsBorder = new int[8];
-                int[] octYPointsBorder = new int[8];
-                for (int j = 0; j < 8; j++) {
-                    double angle = 2 * Math.PI * j / 8;
-                    int radius = Math.min(rect.width, rect.height)/2;
-                    octXPointsBorder[j] = rect.x + rect.width/2 + (int)(radius * Math.cos(angle));
-                    octYPointsBorder[j] = rect.y + rect.height/2 + (int)(radius * Math.sin(angle));
-                }
-                g2d.drawPolygon(octXPointsBorder, octYPointsBorder, 8);
-                break;
-            case "Rounded Rectangle":
-                g2d.drawRoundRect(rect.x, rect.y, rect.width, rect.height, 20, 20);
-                break;
-            default: // Rectangle
-                g2d.drawRect(rect.x, rect.y, rect.width, rect.height);
-        }
-
-        // Draw additional border effects
-        if (borderStyle.equals("Double")) {
-            g2d.setStroke(new BasicStroke(1.0f));
-            g2d.drawRect(rect.x + 3, rect.y + 3, rect.width - 6, rect.height - 6);
-        } else if (borderStyle.equals("Groove")) {
-            g2d.setColor(new Color(0, 0, 0, 50));
-            g2d.drawRect(rect.x + 1, rect.y + 1, rect.width - 2, rect.height - 2);
-        } else if (borderStyle.equals("Ridge")) {
-            g2d.setColor(new Color(255, 255, 255, 50));
-            g2d.drawRect(rect.x + 1, rect.y + 1, rect.width - 2, rect.height - 2);
-        }
-    }
-
-    private void drawPillWithStyle(Graphics2D g2d, Rectangle rect, int index, int position, String pillStyle) {
-        // Calculate pill size
-        int pillWidth = (int)(rect.width * ImagePanel.PILL_SIZE_RATIO);
-        int pillHeight = (int)(rect.height * ImagePanel.PILL_SIZE_RATIO);
-        pillWidth = Math.max(ImagePanel.MIN_PILL_SIZE, Math.min(ImagePanel.MAX_PILL_SIZE, pillWidth));
-        pillHeight = Math.max(ImagePanel.MIN_PILL_SIZE, Math.min(ImagePanel.MAX_PILL_SIZE, pillHeight));
-        
-        // Draw pill
-        String number = String.valueOf(index + 1);
-        Font originalFont = g2d.getFont();
-        int fontSize = (int) (Math.min(pillWidth, pillHeight) * 0.6);
-        g2d.setFont(new Font(originalFont.getName(), Font.BOLD, fontSize));
-        
-        FontMetrics fm = g2d.getFontMetrics();
-        int textWidth = fm.stringWidth(number);
-        pillWidth = Math.max(pillWidth, textWidth + (pillHeight / 4));
-        
-        // Calculate pill position
-        int pillX, pillY;
-        int padding = pillHeight / 4;
-        
-        switch (position) {
-            case 0: // Top right inside
-                pillX = rect.x + rect.width - pillWidth - padding;
-                pillY = rect.y + padding;
-                break;
-            case 1: // Top left inside
-                pillX = rect.x + padding;
-                pillY = rect.y + padding;
-                break;
-            case 2: // Bottom left inside
-                pillX = rect.x + padding;
-                pillY = rect.y + rect.height - pillHeight - padding;
-                break;
-            case 3: // Bottom right inside
-                pillX = rect.x + rect.width - pillWidth - padding;
-                pillY = rect.y + rect.height - pillHeight - padding;
-                break;
-            case 4: // Top right outside
-                pillX = rect.x + rect.width + padding;
-                pillY = rect.y - pillHeight - padding;
-                break;
-            case 5: // Top left outside
-                pillX = rect.x - pillWidth - padding;
-                pillY = rect.y - pillHeight - padding;
-                break;
-            case 6: // Bottom left outside
-                pillX = rect.x - pillWidth - padding;
-                pillY = rect.y + rect.height + padding;
-                break;
-            case 7: // Bottom right outside
-                pillX = rect.x + rect.width + padding;
-                pillY = rect.y + rect.height + padding;
-                break;
-            default:
-                pillX = rect.x + rect.width - pillWidth - padding;
-                pillY = rect.y + padding;
-        }
-        
-        // Draw pill based on style
-        switch (pillStyle) {
-            case "Classic":
-                // Draw classic pill with gradient
-                GradientPaint gradient = new GradientPaint(
-                    pillX, pillY, new Color(255, 59, 48),
-                    pillX, pillY + pillHeight, new Color(255, 59, 48, 200)
-                );
-                g2d.setPaint(gradient);
-                g2d.fillRoundRect(pillX, pillY, pillWidth, pillHeight, 
-                                pillHeight / 2, pillHeight / 2);
-                g2d.setColor(new Color(255, 255, 255, 50));
-                g2d.drawRoundRect(pillX, pillY, pillWidth, pillHeight, 
-                                pillHeight / 2, pillHeight / 2);
-                break;
-                
-            case "Minimal":
-                // Draw minimal pill with thin border
-                g2d.setColor(new Color(255, 59, 48, 180));
-                g2d.fillRoundRect(pillX, pillY, pillWidth, pillHeight, 
-                                pillHeight / 2, pillHeight / 2);
-                g2d.setColor(new Color(255, 59, 48));
-                g2d.setStroke(new BasicStroke(1.0f));
-                g2d.drawRoundRect(pillX, pillY, pillWidth, pillHeight, 
-                                pillHeight / 2, pillHeight / 2);
-                break;
-                
-            case "Bold":
-                // Draw bold pill with thick border
-                g2d.setColor(new Color(255, 59, 48));
-                g2d.fillRoundRect(pillX, pillY, pillWidth, pillHeight, 
-                                pillHeight / 2, pillHeight / 2);
-                g2d.setColor(Color.WHITE);
-                g2d.setStroke(new BasicStroke(2.0f));
-                g2d.drawRoundRect(pillX, pillY, pillWidth, pillHeight, 
-                                pillHeight / 2, pillHeight / 2);
-                break;
-                
-            case "Outline":
-                // Draw outline pill with no fill
-                g2d.setColor(new Color(255, 59, 48));
-                g2d.setStroke(new BasicStroke(2.0f));
-                g2d.drawRoundRect(pillX, pillY, pillWidth, pillHeight, 
-                                pillHeight / 2, pillHeight / 2);
-                break;
-                
-            default: // Modern
-                // Draw modern pill with shadow
-                g2d.setColor(new Color(0, 0, 0, 40));
-                g2d.fillRoundRect(pillX + 2, pillY + 2, pillWidth, pillHeight, 
-                                pillHeight / 2, pillHeight / 2);
-                g2d.setColor(new Color(255, 59, 48, 230));
-                g2d.fillRoundRect(pillX, pillY, pillWidth, pillHeight, 
-                                pillHeight / 2, pillHeight / 2);
-        }
-        
-        // Draw pill text
-        g2d.setColor(Color.WHITE);
-        int textX = pillX + (pillWidth - textWidth) / 2;
-        int textY = pillY + (pillHeight + fm.getAscent() - fm.getDescent()) / 2;
-        g2d.drawString(number, textX, textY);
-        
-        // Restore original font
-        g2d.setFont(originalFont);
-    }
-
     private void captureInitialScreenArea() {
         try {
             // Hide the main window temporarily
@@ -2244,9 +1858,12 @@ public class SelectiveBlurApp extends JFrame {
     }
 
     public static void main(String[] args) {
+        StartupProfiler.start(args);
         SwingUtilities.invokeLater(() -> {
+            StartupProfiler.mark("event thread");
             SelectiveBlurApp app = new SelectiveBlurApp();
             app.setVisible(true);
+            StartupProfiler.mark("frame shown");
         });
     }
 }
\ No newline at end of file
@@ -0,0 +1,320 @@
+package org.sstec.resourceserver;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+// The shapes ImagePanel shows, one row per shape spread over parallel primitive arrays: bounds in image
+// coordinates, the styles as enum codes and the pill settings. Rows are addressed by index, which shifts
+// down when an earlier row is removed, or by an id that stays the same for as long as the shape exists.
+// Reading and updating a row allocates nothing. Only used from the EDT.
+final class ShapeStore {
+    static final int NO_ID = -1;
+
+    enum ShapeType {
+        RECTANGLE("Rectangle"),
+        ELLIPSE("Ellipse"),
+        ROUNDED_RECTANGLE("Rounded Rectangle"),
+        DIAMOND("Diamond"),
+        STAR("Star"),
+        HEXAGON("Hexagon"),
+        OCTAGON("Octagon");
+
+        private static final ShapeType[] CODES = values();
+        final String label;
+
+        ShapeType(String label) {
+            this.label = label;
+        }
+
+        // Unknown labels draw as a plain rectangle, as they always did
+        static ShapeType of(String label) {
+            for (ShapeType type : CODES) {
+                if (type.label.equals(label)) {
+                    return type;
+                }
+            }
+            return RECTANGLE;
+        }
+    }
+
+    enum BorderStyle {
+        SOLID("Solid"),
+        DASHED("Dashed"),
+        DOTTED("Dotted"),
+        DOUBLE("Double"),
+        GROOVE("Groove"),
+        RIDGE("Ridge");
+
+        private static final BorderStyle[] CODES = values();
+        final String label;
+
+        BorderStyle(String label) {
+            this.label = label;
+        }
+
+        static BorderStyle of(String label) {
+            for (BorderStyle style : CODES) {
+                if (style.label.equals(label)) {
+                    return style;
+                }
+            }
+            return SOLID;
+        }
+    }
+
+    enum BorderColor {
+        RED("Red"),
+        BLUE("Blue"),
+        GREEN("Green"),
+        PURPLE("Purple"),
+        ORANGE("Orange"),
+        TEAL("Teal");
+
+        private static final BorderColor[] CODES = values();
+        final String label;
+
+        BorderColor(String label) {
+            this.label = label;
+        }
+
+        static BorderColor of(String label) {
+            for (BorderColor color : CODES) {
+                if (color.label.equals(label)) {
+                    return color;
+                }
+            }
+            return RED;
+        }
+    }
+
+    enum PillStyle {
+        MODERN("Modern"),
+        CLASSIC("Classic"),
+        MINIMAL("Minimal"),
+        BOLD("Bold"),
+        OUTLINE("Outline");
+
+        private static final PillStyle[] CODES = values();
+        final String label;
+
+        PillStyle(String label) {
+            this.label = label;
+        }
+
+        static PillStyle of(String label) {
+            for (PillStyle style : CODES) {
+                if (style.label.equals(label)) {
+                    return style;
+                }
+            }
+            return MODERN;
+        }
+    }
+
+    private int size;
+    private int nextId;
+    private int[] ids = new int[16];
+    private int[] x = new int[16];
+    private int[] y = new int[16];
+    private int[] width = new int[16];
+    private int[] height = new int[16];
+    private byte[] shapeTypes = new byte[16];
+    private byte[] borderStyles = new byte[16];
+    private byte[] borderColors = new byte[16];
+    private byte[] pillStyles = new byte[16];
+    private int[] pillPositions = new int[16];
+    private double[] pillSizes = new double[16];
+
+    public int size() {
+        return size;
+    }
+
+    // Appends a shape with its pill in the default position and size, returns its index
+    public int add(Rectangle bounds, ShapeType shapeType, BorderStyle borderStyle, BorderColor borderColor,
+                   PillStyle pillStyle) {
+        if (size == ids.length) {
+            grow();
+        }
+        int index = size++;
+        ids[index] = nextId++;
+        setBounds(index, bounds);
+        shapeTypes[index] = (byte) shapeType.ordinal();
+        borderStyles[index] = (byte) borderStyle.ordinal();
+        borderColors[index] = (byte) borderColor.ordinal();
+        pillStyles[index] = (byte) pillStyle.ordinal();
+        pillPositions[index] = 0;
+        pillSizes[index] = ImagePanel.PILL_SIZE_RATIO;
+        return index;
+    }
+
+    // Rows after index move down by one
+    public void remove(int index) {
+        checkIndex(index);
+        int moved = size - index - 1;
+        System.arraycopy(ids, index + 1, ids, index, moved);
+        System.arraycopy(x, index + 1, x, index, moved);
+        System.arraycopy(y, index + 1, y, index, moved);
+        System.arraycopy(width, index + 1, width, index, moved);
+        System.arraycopy(height, index + 1, height, index, moved);
+        System.arraycopy(shapeTypes, index + 1, shapeTypes, index, moved);
+        System.arraycopy(borderStyles, index + 1, borderStyles, index, moved);
+        System.arraycopy(borderColors, index + 1, borderColors, index, moved);
+        System.arraycopy(pillStyles, index + 1, pillStyles, index, moved);
+        System.arraycopy(pillPositions, index + 1, pillPositions, index, moved);
+        System.arraycopy(pillSizes, index + 1, pillSizes, index, moved);
+        size--;
+    }
+
+    // Drops every row from newSize on
+    public void truncate(int newSize) {
+        if (newSize < 0 || newSize > size) {
+            throw new IndexOutOfBoundsException("Size " + newSize + ", rows " + size);
+        }
+        size = newSize;
+    }
+
+    public int id(int index) {
+        checkIndex(index);
+        return ids[index];
+    }
+
+    // Current index of the shape with id, or -1 once it is gone
+    public int indexOf(int id) {
+        for (int i = 0; i < size; i++) {
+            if (ids[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int x(int index) {
+        checkIndex(index);
+        return x[index];
+    }
+
+    public int y(int index) {
+        checkIndex(index);
+        return y[index];
+    }
+
+    public int width(int index) {
+        checkIndex(index);
+        return width[index];
+    }
+
+    public int height(int index) {
+        checkIndex(index);
+        return height[index];
+    }
+
+    // Copies the bounds of row index into target and returns it
+    public Rectangle bounds(int index, Rectangle target) {
+        checkIndex(index);
+        target.setBounds(x[index], y[index], width[index], height[index]);
+        return target;
+    }
+
+    public void setBounds(int index, Rectangle bounds) {
+        checkIndex(index);
+        x[index] = bounds.x;
+        y[index] = bounds.y;
+        width[index] = bounds.width;
+        height[index] = bounds.height;
+    }
+
+    public void setLocation(int index, int newX, int newY) {
+        checkIndex(index);
+        x[index] = newX;
+        y[index] = newY;
+    }
+
+    public ShapeType shapeType(int index) {
+        checkIndex(index);
+        return ShapeType.CODES[shapeTypes[index]];
+    }
+
+    public void setShapeType(int index, ShapeType shapeType) {
+        checkIndex(index);
+        shapeTypes[index] = (byte) shapeType.ordinal();
+    }
+
+    public BorderStyle borderStyle(int index) {
+        checkIndex(index);
+        return BorderStyle.CODES[borderStyles[index]];
+    }
+
+    public void setBorderStyle(int index, BorderStyle borderStyle) {
+        checkIndex(index);
+        borderStyles[index] = (byte) borderStyle.ordinal();
+    }
+
+    public BorderColor borderColor(int index) {
+        checkIndex(index);
+        return BorderColor.CODES[borderColors[index]];
+    }
+
+    public void setBorderColor(int index, BorderColor borderColor) {
+        checkIndex(index);
+        borderColors[index] = (byte) borderColor.ordinal();
+    }
+
+    public PillStyle pillStyle(int index) {
+        checkIndex(index);
+        return PillStyle.CODES[pillStyles[index]];
+    }
+
+    public void setPillStyle(int index, PillStyle pillStyle) {
+        checkIndex(index);
+        pillStyles[index] = (byte) pillStyle.ordinal();
+    }
+
+    public int pillPosition(int index) {
+        checkIndex(index);
+        return pillPositions[index];
+    }
+
+    public void setPillPosition(int index, int pillPosition) {
+        checkIndex(index);
+        pillPositions[index] = pillPosition;
+    }
+
+    public double pillSize(int index) {
+        checkIndex(index);
+        return pillSizes[index];
+    }
+
+    public void setPillSize(int index, double pillSize) {
+        checkIndex(index);
+        pillSizes[index] = pillSize;
+    }
+
+    // A standalone copy of row index, for listeners and exports
+    public SelectionShape toSelectionShape(int index) {
+        SelectionShape shape = new SelectionShape(bounds(index, new Rectangle()), shapeType(index).label,
+                borderStyle(index).label, borderColor(index).label, pillStyle(index).label, pillPositions[index]);
+        shape.setPillSize(pillSizes[index]);
+        return shape;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + ", rows " + size);
+        }
+    }
+
+    private void grow() {
+        int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        width = Arrays.copyOf(width, capacity);
+        height = Arrays.copyOf(height, capacity);
+        shapeTypes = Arrays.copyOf(shapeTypes, capacity);
+        borderStyles = Arrays.copyOf(borderStyles, capacity);
+        borderColors = Arrays.copyOf(borderColors, capacity);
+        pillStyles = Arrays.copyOf(pillStyles, capacity);
+        pillPositions = Arrays.copyOf(pillPositions, capacity);
+        pillSizes = Arrays.copyOf(pillSizes, capacity);
+    }
+}
@@ -0,0 +1,86 @@
+package org.sstec.resourceserver;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Time since JVM start and classes loaded at each startup phase of SelectiveBlurApp, up to the first paint of
+// the image canvas and all icons being in. Printed with --startup-profile (or -Dscreenshoots.startupProfile=true),
+// --exit-after-startup quits right after, for timing runs and for recording a CDS archive.
+final class StartupProfiler {
+    private static final Map<String, long[]> phases = new LinkedHashMap<>(); // Uptime in ms, loaded classes
+    private static boolean enabled = Boolean.getBoolean("screenshoots.startupProfile");
+    private static boolean exitAfterStartup;
+    private static boolean painted;
+    private static boolean iconsLoaded;
+    private static boolean finished;
+
+    private StartupProfiler() {
+    }
+
+    // The app takes no other arguments, anything else is ignored
+    static synchronized void start(String[] args) {
+        for (String arg : args) {
+            if (arg.equals("--startup-profile")) {
+                enabled = true;
+            } else if (arg.equals("--exit-after-startup")) {
+                exitAfterStartup = true;
+            }
+        }
+        if (exitAfterStartup) {
+            // A startup that fails, e.g. without a display, must not pass for a timing or training run
+            Thread.setDefaultUncaughtExceptionHandler((thread, e) -> {
+                e.printStackTrace();
+                System.exit(1);
+            });
+        }
+        // Everything before main is JVM startup and loading the classes main needs
+        mark("main");
+    }
+
+    // A no-op unless profiling, the management beans are not even loaded then
+    static synchronized void mark(String phase) {
+        if (enabled && !finished && !phases.containsKey(phase)) {
+            phases.put(phase, new long[]{
+                    ManagementFactory.getRuntimeMXBean().getUptime(),
+                    ManagementFactory.getClassLoadingMXBean().getLoadedClassCount()});
+        }
+    }
+
+    // Called on every paint of the canvas, only the first one counts
+    static synchronized void painted() {
+        if (!painted) {
+            painted = true;
+            mark("first paint");
+            finishIfDone();
+        }
+    }
+
+    static synchronized void iconsLoaded() {
+        if (!iconsLoaded) {
+            iconsLoaded = true;
+            mark("icons loaded");
+            finishIfDone();
+        }
+    }
+
+    private static void finishIfDone() {
+        if (finished || !painted || !iconsLoaded) {
+            return;
+        }
+        finished = true;
+        if (enabled) {
+            System.out.println("Startup profile, ms since JVM start and classes loaded:");
+            long previous = 0;
+            for (Map.Entry<String, long[]> phase : phases.entrySet()) {
+                long[] values = phase.getValue();
+                System.out.printf("  %-20s %6d ms  (+%5d)  %6d classes%n",
+                        phase.getKey(), values[0], values[0] - previous, values[1]);
+                previous = values[0];
+            }
+        }
+        if (exitAfterStartup) {
+            System.exit(0);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package org.sstec.resourceserver;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Vector;
+
+// The blurred, composited and annotated version of an image file, computed one horizontal strip at a time
+// while it is being written. Each strip is decoded through an ImageReader source region together with the
+// rows the blur reaches into (its halo), so the result is the same as blurring the whole image, but only
+// one strip is ever in memory and peak memory does not depend on the image height.
+// Readers that decode sequentially (PNG, JPEG) start over for every strip, so strips should be tall.
+class TiledBlurImage implements RenderedImage {
+    private final ImageReader reader;
+    private final int width;
+    private final int height;
+    private final int stripHeight;
+    private final int blurRadius;
+    private final List<SelectionShape> shapes;
+    private final GaussianFilter filter = new GaussianFilter(1);
+    private final int reach;
+    private final ColorModel colorModel = ColorModel.getRGBdefault();
+
+    // The strip computed last, the PNG writer asks for the rows in order
+    private int cachedStripIndex = -1;
+    private BufferedImage cachedStrip;
+
+    // reader must already have its input set
+    TiledBlurImage(ImageReader reader, int blurRadius, List<SelectionShape> shapes, int stripHeight) throws IOException {
+        this.reader = reader;
+        this.width = reader.getWidth(0);
+        this.height = reader.getHeight(0);
+        this.stripHeight = Math.max(1, Math.min(stripHeight, height));
+        this.blurRadius = blurRadius;
+        this.shapes = shapes;
+        BlurRenderer.configure(filter, blurRadius);
+        this.reach = blurRadius > 0 ? filter.getReach() : 0;
+    }
+
+    private BufferedImage strip(int index) {
+        if (index == cachedStripIndex) {
+            return cachedStrip;
+        }
+        cachedStrip = null; // Let the previous strip go before decoding the next one
+        int stripTop = index * stripHeight;
+        int stripBottom = Math.min(height, stripTop + stripHeight);
+        int sourceTop = Math.max(0, stripTop - reach);
+        int sourceBottom = Math.min(height, stripBottom + reach);
+
+        BufferedImage source;
+        try {
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(new Rectangle(0, sourceTop, width, sourceBottom - sourceTop));
+            source = reader.read(0, param);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading rows " + sourceTop + " to " + sourceBottom, e);
+        }
+        BufferedImage blurred = blurRadius > 0 ? filter.filter(source, null) : source;
+
+        BufferedImage strip = new BufferedImage(width, stripBottom - stripTop, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = strip.createGraphics();
+        g2d.setComposite(AlphaComposite.Src);
+        g2d.drawImage(blurred, 0, sourceTop - stripTop, null);
+        g2d.setComposite(AlphaComposite.SrcOver);
+
+        // From here on in image coordinates
+        g2d.translate(0, -stripTop);
+        Rectangle stripBounds = new Rectangle(0, stripTop, width, stripBottom - stripTop);
+        g2d.setClip(stripBounds);
+
+        // Paste unblurred portions from the source rows
+        for (SelectionShape shape : shapes) {
+            Rectangle clippedRect = shape.getBounds().intersection(stripBounds);
+            if (clippedRect.width > 0 && clippedRect.height > 0) {
+                BufferedImage unblurredPortion = source.getSubimage(
+                        clippedRect.x, clippedRect.y - sourceTop, clippedRect.width, clippedRect.height);
+                g2d.drawImage(unblurredPortion, clippedRect.x, clippedRect.y, null);
+            }
+        }
+
+        // Shapes and pills can stick out of their bounds, so all of them are drawn and the clip keeps the strip
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g2d.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+        for (int i = 0; i < shapes.size(); i++) {
+            SelectionShape shape = shapes.get(i);
+            AnnotationRenderer.drawShapeWithStyle(g2d, shape.getBounds(), shape.getShape(), shape.getBorderStyle(), shape.getBorderColor());
+            AnnotationRenderer.drawPillWithStyle(g2d, shape.getBounds(), i, shape.getPillPosition(), shape.getPillStyle());
+        }
+        g2d.dispose();
+
+        cachedStripIndex = index;
+        cachedStrip = strip;
+        return strip;
+    }
+
+    @Override
+    public Raster getTile(int tileX, int tileY) {
+        return strip(tileY).getRaster().createTranslatedChild(0, tileY * stripHeight);
+    }
+
+    @Override
+    public Raster getData(Rectangle rect) {
+        WritableRaster raster = colorModel.createCompatibleWritableRaster(rect.width, rect.height)
+                .createWritableTranslatedChild(rect.x, rect.y);
+        return copyData(raster);
+    }
+
+    @Override
+    public Raster getData() {
+        return getData(new Rectangle(0, 0, width, height));
+    }
+
+    @Override
+    public WritableRaster copyData(WritableRaster raster) {
+        if (raster == null) {
+            return (WritableRaster) getData();
+        }
+        Rectangle area = raster.getBounds().intersection(new Rectangle(0, 0, width, height));
+        if (area.isEmpty()) {
+            return raster;
+        }
+        int firstStrip = area.y / stripHeight;
+        int lastStrip = (area.y + area.height - 1) / stripHeight;
+        for (int index = firstStrip; index <= lastStrip; index++) {
+            Rectangle part = area.intersection(new Rectangle(0, index * stripHeight, width, stripHeight));
+            Raster tile = getTile(0, index).createChild(part.x, part.y, part.width, part.height, part.x, part.y, null);
+            raster.setRect(tile);
+        }
+        return raster;
+    }
+
+    @Override
+    public Vector<RenderedImage> getSources() {
+        return null;
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return Image.UndefinedProperty;
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+        return null;
+    }
+
+    @Override
+    public ColorModel getColorModel() {
+        return colorModel;
+    }
+
+    @Override
+    public SampleModel getSampleModel() {
+        return colorModel.createCompatibleSampleModel(width, stripHeight);
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getMinX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinY() {
+        return 0;
+    }
+
+    @Override
+    public int getNumXTiles() {
+        return 1;
+    }
+
+    @Override
+    public int getNumYTiles() {
+        return (height + stripHeight - 1) / stripHeight;
+    }
+
+    @Override
+    public int getMinTileX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinTileY() {
+        return 0;
+    }
+
+    @Override
+    public int getTileWidth() {
+        return width;
+    }
+
+    @Override
+    public int getTileHeight() {
+        return stripHeight;
+    }
+
+    @Override
+    public int getTileGridXOffset() {
+        return 0;
+    }
+
+    @Override
+    public int getTileGridYOffset() {
+        return 0;
+    }
+}